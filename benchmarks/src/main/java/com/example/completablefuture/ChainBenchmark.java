@@ -0,0 +1,90 @@
+package com.example.completablefuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// 链长度对延迟和分配的影响: 递归的thenCompose / 重复的thenApply 与 AsyncLoops.loop。
+// sync表示每一步返回已完成的future(同步回调, 递归版本的栈随链长增长, 链较长时syncRecursiveCompose会StackOverflowError),
+// async表示每一步都在另一个线程上完成。
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    int chainLength;
+
+    ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Integer thenApplyChain() {
+        CompletableFuture<Integer> cf = CompletableFuture.completedFuture(0);
+        for (int i = 0; i < chainLength; i++) {
+            cf = cf.thenApply(x -> x + 1);
+        }
+        return cf.join();
+    }
+
+    @Benchmark
+    public Integer syncRecursiveCompose() {
+        return syncStep(0).join();
+    }
+
+    @Benchmark
+    public Integer syncLoop() {
+        return AsyncLoops.loop(0, x -> x < chainLength, x -> CompletableFuture.completedFuture(x + 1)).join();
+    }
+
+    @Benchmark
+    public Integer asyncRecursiveCompose() {
+        return asyncStep(0).join();
+    }
+
+    @Benchmark
+    public Integer asyncLoop() {
+        return AsyncLoops.loop(0, x -> x < chainLength, x -> CompletableFuture.supplyAsync(() -> x + 1, executor)).join();
+    }
+
+    private CompletableFuture<Integer> syncStep(int x) {
+        if (x >= chainLength) {
+            return CompletableFuture.completedFuture(x);
+        }
+        return CompletableFuture.completedFuture(x + 1).thenCompose(this::syncStep);
+    }
+
+    private CompletableFuture<Integer> asyncStep(int x) {
+        if (x >= chainLength) {
+            return CompletableFuture.completedFuture(x);
+        }
+        return CompletableFuture.supplyAsync(() -> x + 1, executor).thenCompose(this::asyncStep);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.completablefuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// 对比JDK的allOf + 逐个join / anyOf 与 Futures.allAsList / anyOf。
+// 每次调用创建n个未完成的future, 组合之后再逐个完成它们, 两边的这部分开销相同。分配情况用 -prof gc 查看。
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombinatorBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int size;
+
+    @Benchmark
+    public List<Integer> jdkAllOfJoin() {
+        List<CompletableFuture<Integer>> futures = newFutures();
+        CompletableFuture<List<Integer>> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        completeAll(futures);
+        return all.join();
+    }
+
+    @Benchmark
+    public List<Integer> allAsList() {
+        List<CompletableFuture<Integer>> futures = newFutures();
+        CompletableFuture<List<Integer>> all = Futures.allAsList(futures);
+        completeAll(futures);
+        return all.join();
+    }
+
+    @Benchmark
+    public Object jdkAnyOf() {
+        List<CompletableFuture<Integer>> futures = newFutures();
+        CompletableFuture<Object> any = CompletableFuture.anyOf(futures.toArray(new CompletableFuture[0]));
+        completeAll(futures);
+        return any.join();
+    }
+
+    @Benchmark
+    public Integer anyOf() {
+        List<CompletableFuture<Integer>> futures = newFutures();
+        CompletableFuture<Integer> any = Futures.anyOf(futures);
+        completeAll(futures);
+        return any.join();
+    }
+
+    private List<CompletableFuture<Integer>> newFutures() {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        return futures;
+    }
+
+    private static void completeAll(List<CompletableFuture<Integer>> futures) {
+        for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).complete(i);
+        }
+    }
+}
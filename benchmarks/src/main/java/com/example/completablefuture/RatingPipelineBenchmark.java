@@ -0,0 +1,129 @@
+package com.example.completablefuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// 对比几种评分管道的实现。GC分配速率用 -prof gc 查看, 例如:
+// java -jar benchmarks/target/benchmarks.jar RatingPipelineBenchmark -prof gc
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RatingPipelineBenchmark {
+
+    @Param({"100", "1000"})
+    int catalogSize;
+
+    @Param({"10", "1000"})
+    int manufacturers;
+
+    @Param({"100", "1000"})
+    int latencyMicros;
+
+    List<Car> cars;
+    SimulatedRatingService service;
+    // 与CompletableFutureExamples.executor一样的固定大小线程池
+    ExecutorService customExecutor;
+    ExecutorService virtualThreadExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cars = IntStream.range(0, catalogSize)
+                .mapToObj(i -> new Car(i, i % manufacturers, "Model-" + i, 2000 + i % 20))
+                .collect(Collectors.toList());
+        service = new SimulatedRatingService(LatencyModel.fixed(Duration.ofNanos(latencyMicros * 1_000L)), 0);
+        customExecutor = Executors.newFixedThreadPool(3);
+        virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        customExecutor.shutdown();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<Car> sequential() {
+        cars.forEach(car -> car.setRating(service.rating(car.manufacturerId)));
+        return cars;
+    }
+
+    @Benchmark
+    public List<Car> supplyAsyncAllOf() {
+        return allOf(car -> CompletableFuture.supplyAsync(() -> service.rating(car.manufacturerId)));
+    }
+
+    @Benchmark
+    public List<Car> supplyAsyncCustomExecutor() {
+        return allOf(car -> CompletableFuture.supplyAsync(() -> service.rating(car.manufacturerId), customExecutor));
+    }
+
+    @Benchmark
+    public List<Car> parallelStream() {
+        cars.parallelStream().forEach(car -> car.setRating(service.rating(car.manufacturerId)));
+        return cars;
+    }
+
+    @Benchmark
+    public List<Car> virtualThreads() {
+        if (virtualThreadExecutor == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+, running on " + Runtime.version()
+                    + ", exclude this benchmark with -e virtualThreads");
+        }
+        return allOf(car -> CompletableFuture.supplyAsync(() -> service.rating(car.manufacturerId), virtualThreadExecutor));
+    }
+
+    // 每次调用使用一个新的缓存, 体现manufacturer基数的影响而不是跨调用的缓存命中
+    @Benchmark
+    public List<Car> cachedRatingAsync() {
+        RatingCache cache = new RatingCache(service::ratingAsync, manufacturers,
+                Duration.ofMinutes(10), Duration.ZERO, Duration.ZERO);
+        return allOf(car -> cache.get(car.manufacturerId));
+    }
+
+    private List<Car> allOf(Function<Car, CompletableFuture<Float>> rating) {
+        List<CompletableFuture<Car>> updatedCars = cars.stream()
+                .map(car -> rating.apply(car).exceptionally(th -> -1f).thenApply(rate -> {
+                    car.setRating(rate);
+                    return car;
+                }))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(updatedCars.toArray(new CompletableFuture[0]))
+                .thenApply(v -> updatedCars.stream().map(CompletableFuture::join).collect(Collectors.toList()))
+                .join();
+    }
+
+    // 项目以Java 9为目标, 通过反射使用Executors.newVirtualThreadPerTaskExecutor(), 不支持时返回null
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
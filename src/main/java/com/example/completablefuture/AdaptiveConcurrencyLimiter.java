@@ -0,0 +1,240 @@
+package com.example.completablefuture;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// 并发上限随测量到的延迟自适应调整的Executor(AIMD): 平滑后的延迟低于baselineRtt * tolerance时加性增加上限(每个窗口约+1),
+// 延迟超过它或任务失败时乘性减小上限。达到上限后的任务先排队, 队列满了抛出RejectedExecutionException。
+// baselineRtt是没有拥塞时的延迟: 取窗口里成功样本的中位数, 失败和个别特别快的样本不会把它拉低;
+// 平时它只会变小, 不会跟着过载时升高的延迟一起升高(否则过载永远不会被发现, 上限一路涨到maxLimit)。
+// 每隔PROBE_INTERVAL个窗口把上限临时降到PROBE_RATIO, 用这个低并发窗口的中位数重新测量baselineRtt,
+// 这样后端真的变慢(而不是过载)时baselineRtt也能跟上, 然后恢复原来的上限(和TCP Vegas的做法相同)。
+// execute(Runnable)只能从抛出的异常判断失败, 而CompletableFuture.supplyAsync(fn, limiter)会自己捕获异常,
+// 所以需要区分失败时应使用limiter.supplyAsync(fn)。
+class AdaptiveConcurrencyLimiter implements Executor {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_WINDOW_SAMPLES = 100;
+    private static final int PROBE_INTERVAL = 20;
+    private static final double PROBE_RATIO = 0.25;
+
+    private final Executor delegate;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final double tolerance;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // 只在synchronized(this)中修改
+    private double limit;
+    private double smoothedRttNanos;
+    private long samplesSinceDecrease;
+    private LatencyHistogram window = new LatencyHistogram();
+    private long windowsSinceProbe;
+    private boolean probing;
+    private int probeSamples;
+    private double limitBeforeProbe;
+    private long baselineRttNanos = Long.MAX_VALUE;
+
+    AdaptiveConcurrencyLimiter(Executor delegate, int initialLimit, int minLimit, int maxLimit, int maxQueued, double tolerance) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("expected 0 < minLimit <= initialLimit <= maxLimit: "
+                    + minLimit + ", " + initialLimit + ", " + maxLimit);
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("tolerance must be >= 1: " + tolerance);
+        }
+        this.delegate = delegate;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (tryAcquire()) {
+            dispatch(command);
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Concurrency limit " + getLimit() + " reached and queue is full");
+        }
+        queue.offer(command);
+        // 入队的同时可能有任务刚好完成, 再尝试一次, 以免任务滞留在队列里
+        drainQueue();
+    }
+
+    // 和CompletableFuture.supplyAsync(supplier, limiter)一样, 但supplier抛出的异常会被计为失败样本
+    <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        SupplyTask<T> task = new SupplyTask<>(supplier);
+        execute(task);
+        return task.result;
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized long getBaselineRttNanos() {
+        return baselineRttNanos;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getQueued() {
+        return queued.get();
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void dispatch(Runnable command) {
+        Runnable measured = () -> {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                command.run();
+                failed = command instanceof SupplyTask && ((SupplyTask<?>) command).failed;
+            } finally {
+                onComplete(System.nanoTime() - start, failed);
+            }
+        };
+        try {
+            delegate.execute(measured);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void onComplete(long rttNanos, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (probing) {
+                // 探测期间上限固定; 只记录在并发已经降到探测上限之后完成的样本
+                if (current <= limit) {
+                    if (!failed) {
+                        window.record(rttNanos);
+                    }
+                    if (++probeSamples >= MIN_WINDOW_SAMPLES) {
+                        finishProbe();
+                    }
+                }
+            } else {
+                if (!failed) {
+                    // 失败的调用往往很快返回, 不能代表正常的延迟, 只用成功的样本估计延迟
+                    smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : smoothedRttNanos * (1 - SMOOTHING) + rttNanos * SMOOTHING;
+                    window.record(rttNanos);
+                    if (window.count() >= Math.max(MIN_WINDOW_SAMPLES, limit)) {
+                        closeWindow();
+                    }
+                }
+                adjustLimit(current, failed);
+            }
+        }
+        drainQueue();
+    }
+
+    // 调用时必须持有this的锁
+    private void adjustLimit(int current, boolean failed) {
+        samplesSinceDecrease++;
+        if (failed || smoothedRttNanos > baselineRttNanos * tolerance) {
+            // 每个窗口(约limit个样本)最多减小一次, 避免同一波慢请求把上限连续压到最低
+            if (samplesSinceDecrease >= limit) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                samplesSinceDecrease = 0;
+            }
+        } else if (current * 2 >= limit) {
+            // 只有真正用到了一半以上的并发时才增加上限
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    // 用窗口的中位数而不是最小值, 个别特别快的样本(例如命中缓存)不会让之后正常的延迟都被当成过载。
+    // 两次探测之间baselineRtt只降不升
+    private void closeWindow() {
+        baselineRttNanos = Math.min(baselineRttNanos, window.percentile(50));
+        window = new LatencyHistogram();
+        if (++windowsSinceProbe >= PROBE_INTERVAL) {
+            probing = true;
+            probeSamples = 0;
+            limitBeforeProbe = limit;
+            limit = Math.max(minLimit, limit * PROBE_RATIO);
+        }
+    }
+
+    // 低并发下测得的中位数就是新的baselineRtt, 可能比原来的大(后端本身变慢了); 探测期间全部失败时保留原来的值
+    private void finishProbe() {
+        if (window.count() > 0) {
+            baselineRttNanos = window.percentile(50);
+        }
+        window = new LatencyHistogram();
+        windowsSinceProbe = 0;
+        probing = false;
+        limit = limitBeforeProbe;
+        smoothedRttNanos = 0;
+        samplesSinceDecrease = 0;
+    }
+
+    private void drainQueue() {
+        while (!queue.isEmpty() && tryAcquire()) {
+            Runnable next = queue.poll();
+            if (next == null) {
+                inFlight.decrementAndGet();
+                return;
+            }
+            queued.decrementAndGet();
+            try {
+                dispatch(next);
+            } catch (RejectedExecutionException e) {
+                // delegate拒绝了排队的任务, 而提交它的调用方早已返回, 像CallerRunsPolicy一样在当前线程执行, 以免它永远不完成
+                next.run();
+            }
+        }
+    }
+
+    private static final class SupplyTask<T> implements Runnable {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Supplier<T> supplier;
+        volatile boolean failed;
+
+        SupplyTask(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(supplier.get());
+            } catch (Throwable th) {
+                failed = true;
+                result.completeExceptionally(th);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.completablefuture;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// 栈安全的异步循环和折叠。用递归的thenCompose写分页或重试循环时, 已经完成的阶段会在当前线程上同步回调,
+// 调用栈随循环次数增长, 几千次之后就可能StackOverflowError; 异步的阶段则会留下一条与循环次数等长的future链。
+// 这里用一个trampoline循环迭代执行: 已完成的阶段直接取值继续循环(不分配回调),
+// 未完成的阶段注册同一个回调对象, 回调只是让循环再跑一轮, 栈深度和内存都与循环次数无关。
+final class AsyncLoops {
+
+    private AsyncLoops() {
+    }
+
+    // 异步的while循环: while (condition(state)) state = await step(state)
+    static <T> CompletableFuture<T> loop(T initial, Predicate<? super T> condition,
+                                         Function<? super T, ? extends CompletionStage<T>> step) {
+        Loop<T> loop = new Loop<>(initial, condition, step);
+        loop.run();
+        return loop.result;
+    }
+
+    // 异步的fold: 对每个元素依次 acc = await step(acc, element)
+    static <A, B> CompletableFuture<B> fold(Iterator<? extends A> elements, B initial,
+                                            BiFunction<? super B, ? super A, ? extends CompletionStage<B>> step) {
+        return loop(initial, acc -> elements.hasNext(), acc -> step.apply(acc, elements.next()));
+    }
+
+    private static final class Loop<T> implements BiConsumer<T, Throwable> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Predicate<? super T> condition;
+        final Function<? super T, ? extends CompletionStage<T>> step;
+        final AtomicInteger wip = new AtomicInteger();
+        volatile T state;
+
+        Loop(T initial, Predicate<? super T> condition, Function<? super T, ? extends CompletionStage<T>> step) {
+            this.state = initial;
+            this.condition = condition;
+            this.step = step;
+        }
+
+        // 异步阶段完成时的回调, 所有阶段共用这一个对象
+        @Override
+        public void accept(T value, Throwable th) {
+            if (th != null) {
+                result.completeExceptionally(th);
+                return;
+            }
+            state = value;
+            run();
+        }
+
+        void run() {
+            if (wip.getAndIncrement() != 0) {
+                // 另一轮循环正在执行(可能就是当前线程上的外层调用), 它会读取新的state继续
+                return;
+            }
+            do {
+                try {
+                    iterate();
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private void iterate() {
+            while (!result.isDone()) {
+                T current = state;
+                if (!condition.test(current)) {
+                    result.complete(current);
+                    return;
+                }
+                CompletableFuture<T> next = step.apply(current).toCompletableFuture();
+                if (!next.isDone()) {
+                    next.whenComplete(this);
+                    return;
+                }
+                try {
+                    state = next.join();
+                } catch (CompletionException e) {
+                    result.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+                    return;
+                }
+            }
+        }
+    }
+}
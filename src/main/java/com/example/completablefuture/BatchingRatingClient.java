@@ -0,0 +1,99 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// 把单个的rating(manufacturerId)请求在一个时间窗口内(或达到maxBatchSize时)合并成一次ratings(int[])批量查询,
+// 再分别完成每个调用方的CompletableFuture<Float>。同一批次内相同的manufacturerId共享一个future。
+class BatchingRatingClient {
+
+    private final Function<int[], float[]> bulkLookup;
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final long windowNanos;
+
+    private Batch current;
+
+    BatchingRatingClient(Function<int[], float[]> bulkLookup, Executor executor, int maxBatchSize, Duration window) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.bulkLookup = bulkLookup;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = window.toNanos();
+    }
+
+    CompletableFuture<Float> rating(int manufacturerId) {
+        CompletableFuture<Float> result;
+        Batch full = null;
+        Batch scheduled = null;
+        synchronized (this) {
+            if (current == null) {
+                current = new Batch();
+                scheduled = current;
+            }
+            result = current.pending.computeIfAbsent(manufacturerId, id -> new CompletableFuture<>());
+            if (current.pending.size() >= maxBatchSize) {
+                full = current;
+                current = null;
+            }
+        }
+        // 同一批次的调用方共享一个future, 返回副本, 以免某个调用方的cancel/complete影响其他调用方
+        result = result.copy();
+        if (full != null) {
+            send(full);
+        } else if (scheduled != null) {
+            // 窗口到期时如果这个批次还没被发送, 就发送它; delayedExecutor等待期间不占用线程
+            Batch batch = scheduled;
+            CompletableFuture.delayedExecutor(windowNanos, TimeUnit.NANOSECONDS, executor).execute(() -> flush(batch));
+        }
+        return result;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (current != batch) {
+                return;
+            }
+            current = null;
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        int[] ids = new int[batch.pending.size()];
+        List<CompletableFuture<Float>> futures = new ArrayList<>(ids.length);
+        int i = 0;
+        for (Map.Entry<Integer, CompletableFuture<Float>> entry : batch.pending.entrySet()) {
+            ids[i++] = entry.getKey();
+            futures.add(entry.getValue());
+        }
+
+        CompletableFuture.supplyAsync(() -> bulkLookup.apply(ids), executor).whenComplete((ratings, th) -> {
+            Throwable failure = th;
+            if (failure == null && (ratings == null || ratings.length != ids.length)) {
+                failure = new IllegalStateException("Bulk lookup returned " + (ratings == null ? "null" : ratings.length + " ratings")
+                        + " for " + ids.length + " manufacturers");
+            }
+            for (int j = 0; j < futures.size(); j++) {
+                if (failure != null) {
+                    futures.get(j).completeExceptionally(failure);
+                } else {
+                    futures.get(j).complete(ratings[j]);
+                }
+            }
+        });
+    }
+
+    private static final class Batch {
+        final Map<Integer, CompletableFuture<Float>> pending = new LinkedHashMap<>();
+    }
+}
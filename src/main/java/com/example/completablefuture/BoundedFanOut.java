@@ -0,0 +1,88 @@
+package com.example.completablefuture;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// 流式的扇出阶段: 从Iterator/Stream中按需拉取元素, 同时最多只有maxInFlight个异步调用在进行,
+// 每个结果完成后立即交给onResult, 内存占用与总元素个数无关。
+// onResult可能在不同线程上被并发调用; 任何一个元素失败(或onResult抛出异常)都会让返回的future失败并停止拉取。
+class BoundedFanOut<T, R> {
+
+    private final Iterator<? extends T> source;
+    private final int maxInFlight;
+    private final Function<? super T, ? extends CompletableFuture<? extends R>> function;
+    private final Consumer<? super R> onResult;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean exhausted;
+
+    private BoundedFanOut(Iterator<? extends T> source, int maxInFlight,
+                          Function<? super T, ? extends CompletableFuture<? extends R>> function,
+                          Consumer<? super R> onResult) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.source = source;
+        this.maxInFlight = maxInFlight;
+        this.function = function;
+        this.onResult = onResult;
+    }
+
+    static <T, R> CompletableFuture<Void> forEach(Iterator<? extends T> source, int maxInFlight,
+                                                  Function<? super T, ? extends CompletableFuture<? extends R>> function,
+                                                  Consumer<? super R> onResult) {
+        BoundedFanOut<T, R> fanOut = new BoundedFanOut<>(source, maxInFlight, function, onResult);
+        fanOut.pump();
+        return fanOut.result;
+    }
+
+    static <T, R> CompletableFuture<Void> forEach(Stream<? extends T> source, int maxInFlight,
+                                                  Function<? super T, ? extends CompletableFuture<? extends R>> function,
+                                                  Consumer<? super R> onResult) {
+        return forEach(source.iterator(), maxInFlight, function, onResult).whenComplete((v, th) -> source.close());
+    }
+
+    // wip保证同一时刻只有一个线程在拉取source; 已完成的future在循环中同步回调时不会递归调用pump
+    private void pump() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            try {
+                while (!result.isDone() && !exhausted && inFlight.get() < maxInFlight) {
+                    if (!source.hasNext()) {
+                        exhausted = true;
+                        break;
+                    }
+                    T element = source.next();
+                    inFlight.incrementAndGet();
+                    function.apply(element).whenComplete(this::onComplete);
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            if (exhausted && inFlight.get() == 0) {
+                result.complete(null);
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private void onComplete(R value, Throwable th) {
+        if (th != null) {
+            result.completeExceptionally(th);
+        } else if (!result.isDone()) {
+            try {
+                onResult.accept(value);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+        inFlight.decrementAndGet();
+        pump();
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.completablefuture;
 
 class Car {
+    // 在截止时间之前没有拿到评分的汽车, 与评分失败时的-1f区分开
+    static final float UNRATED = Float.NaN;
+
     int id;
     int manufacturerId;
     String model;
@@ -18,9 +21,13 @@ class Car {
         this.rating = rating;
     }
 
+    boolean isRated() {
+        return !Float.isNaN(rating);
+    }
+
     @Override
     public String toString() {
         return "Car (id=" + id + ", manufacturerId=" + manufacturerId + ", model=" + model + ", year=" + year
-                + ", rating=" + rating;
+                + ", rating=" + (isRated() ? String.valueOf(rating) : "UNRATED");
     }
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+package com.example.completablefuture;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// 紧凑的二进制汽车目录, 通过MappedByteBuffer读取:
+//   header: magic "CARS"(int), version(int), rowCount(int), modelCount(int), stringTableOffset(long)
+//   rows:   每行16字节 id(int), manufacturerId(int), modelIndex(int), year(short), 2字节填充
+//   string table: 每个model为 length(short) + UTF-8字节
+// 字段按行号直接从映射的内存中读取, 不需要先把整个文件解析成对象, 管道可以在后面的页还没载入时就开始处理前面的行。
+final class CarCatalogFile {
+
+    static final int MAGIC = 0x43415253;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int ROW_SIZE = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int rowCount;
+    private final String[] models;
+
+    private CarCatalogFile(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a car catalog file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported car catalog version: " + buffer.getInt(4));
+        }
+        this.rowCount = buffer.getInt(8);
+        int modelCount = buffer.getInt(12);
+        long stringTableOffset = buffer.getLong(16);
+        if (rowCount < 0 || modelCount < 0) {
+            throw new IOException("Corrupt car catalog: " + rowCount + " rows, " + modelCount + " models");
+        }
+        if (stringTableOffset != HEADER_SIZE + (long) rowCount * ROW_SIZE || stringTableOffset > buffer.limit()) {
+            throw new IOException("Corrupt car catalog: string table at " + stringTableOffset + " for " + rowCount
+                    + " rows in " + buffer.limit() + " bytes");
+        }
+        // 每个model至少占2字节, 先检查再分配数组
+        if (modelCount > (buffer.limit() - stringTableOffset) / 2) {
+            throw new IOException("Corrupt car catalog: " + modelCount + " models do not fit in the string table");
+        }
+        this.models = readStringTable(buffer, (int) stringTableOffset, modelCount);
+    }
+
+    static CarCatalogFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Car catalog larger than 2 GB is not supported: " + path);
+            }
+            // 映射在channel关闭后仍然有效
+            return new CarCatalogFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    int size() {
+        return rowCount;
+    }
+
+    int id(int row) {
+        return buffer.getInt(offset(row));
+    }
+
+    int manufacturerId(int row) {
+        return buffer.getInt(offset(row) + 4);
+    }
+
+    String model(int row) {
+        int index = buffer.getInt(offset(row) + 8);
+        if (index < 0 || index >= models.length) {
+            // 行是按需读取的, 损坏的行只有读到时才能发现
+            throw new UncheckedIOException(new IOException("Corrupt car catalog: row " + row
+                    + " refers to model " + index + " of " + models.length));
+        }
+        return models[index];
+    }
+
+    int year(int row) {
+        return buffer.getShort(offset(row) + 12);
+    }
+
+    Car car(int row) {
+        return new Car(id(row), manufacturerId(row), model(row), year(row));
+    }
+
+    // 按需物化Car, 可以直接交给BoundedFanOut流式评分
+    Iterator<Car> iterator() {
+        return new Iterator<Car>() {
+            int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < rowCount;
+            }
+
+            @Override
+            public Car next() {
+                if (row >= rowCount) {
+                    throw new NoSuchElementException();
+                }
+                return car(row++);
+            }
+        };
+    }
+
+    CarTable toTable() {
+        CarTable table = new CarTable(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            table.add(id(row), manufacturerId(row), model(row), year(row));
+        }
+        return table;
+    }
+
+    private int offset(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);
+        }
+        return HEADER_SIZE + row * ROW_SIZE;
+    }
+
+    private static String[] readStringTable(MappedByteBuffer buffer, int offset, int count) throws IOException {
+        String[] strings = new String[count];
+        int position = offset;
+        for (int i = 0; i < count; i++) {
+            if ((long) position + 2 > buffer.limit()) {
+                throw new IOException("Corrupt car catalog: truncated string table");
+            }
+            int length = buffer.getShort(position) & 0xFFFF;
+            position += 2;
+            if ((long) position + length > buffer.limit()) {
+                throw new IOException("Corrupt car catalog: truncated string table");
+            }
+            byte[] bytes = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bytes[j] = buffer.get(position + j);
+            }
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += length;
+        }
+        return strings;
+    }
+
+    static void write(List<Car> cars, Path path) throws IOException {
+        write(cars.iterator(), cars.size(), path);
+    }
+
+    static void write(Iterator<Car> cars, int rowCount, Path path) throws IOException {
+        List<String> models = new ArrayList<>();
+        Map<String, Integer> modelIndex = new HashMap<>();
+        try (OutputStream file = Files.newOutputStream(path);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rowCount);
+            // modelCount在写完行之后回填
+            out.writeInt(0);
+            out.writeLong(HEADER_SIZE + (long) rowCount * ROW_SIZE);
+            int written = 0;
+            while (cars.hasNext()) {
+                Car car = cars.next();
+                if (car.year < Short.MIN_VALUE || car.year > Short.MAX_VALUE) {
+                    throw new IOException("year out of range: " + car.year);
+                }
+                int index = modelIndex.computeIfAbsent(car.model, m -> {
+                    models.add(m);
+                    return models.size() - 1;
+                });
+                out.writeInt(car.id);
+                out.writeInt(car.manufacturerId);
+                out.writeInt(index);
+                out.writeShort(car.year);
+                out.writeShort(0);
+                written++;
+            }
+            if (written != rowCount) {
+                throw new IOException("Expected " + rowCount + " cars but got " + written);
+            }
+            for (String model : models) {
+                byte[] bytes = model.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) {
+                    throw new IOException("model name too long: " + model.length() + " chars");
+                }
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, models.size()), 12);
+        }
+    }
+
+    // 把文本目录(每行 id,manufacturerId,model,year, #开头的行是注释)转换为二进制目录
+    static int convertCsv(Path csv, Path catalog) throws IOException {
+        int rows = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isRow(line)) {
+                    rows++;
+                }
+            }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            Iterator<Car> cars = reader.lines().filter(CarCatalogFile::isRow).map(CarCatalogFile::parse).iterator();
+            write(cars, rows, catalog);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows;
+    }
+
+    static void writeCsv(List<Car> cars, Path csv) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write("# id,manufacturerId,model,year");
+            writer.newLine();
+            for (Car car : cars) {
+                writer.write(car.id + "," + car.manufacturerId + "," + car.model + "," + car.year);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static boolean isRow(String line) {
+        String trimmed = line.trim();
+        return !trimmed.isEmpty() && !trimmed.startsWith("#");
+    }
+
+    private static Car parse(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Expected id,manufacturerId,model,year but got: " + line);
+        }
+        return new Car(Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim()),
+                fields[2].trim(), Integer.parseInt(fields[3].trim()));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+// 列式存储的汽车目录: 每个字段一个基本类型数组(struct-of-arrays), model通过字典去重。
+// 数百万行时没有每个对象的头部和指针跳转, 评分直接按行号写入float列, 不需要为每一行创建Car或装箱Float。
+final class CarTable {
+
+    @FunctionalInterface
+    interface RatingFunction {
+        float rating(int manufacturerId);
+    }
+
+    int[] id;
+    int[] manufacturerId;
+    int[] model;
+    short[] year;
+    float[] rating;
+    int size;
+
+    private final List<String> models = new ArrayList<>();
+    private final Map<String, Integer> modelIndex = new HashMap<>();
+
+    CarTable(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        id = new int[capacity];
+        manufacturerId = new int[capacity];
+        model = new int[capacity];
+        year = new short[capacity];
+        rating = new float[capacity];
+    }
+
+    static CarTable of(List<Car> cars) {
+        CarTable table = new CarTable(cars.size());
+        for (Car car : cars) {
+            int row = table.add(car.id, car.manufacturerId, car.model, car.year);
+            table.rating[row] = car.rating;
+        }
+        return table;
+    }
+
+    int add(int id, int manufacturerId, String model, int year) {
+        if (year < Short.MIN_VALUE || year > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("year out of range: " + year);
+        }
+        if (size == this.id.length) {
+            grow();
+        }
+        int row = size++;
+        this.id[row] = id;
+        this.manufacturerId[row] = manufacturerId;
+        this.model[row] = internModel(model);
+        this.year[row] = (short) year;
+        return row;
+    }
+
+    int internModel(String model) {
+        return modelIndex.computeIfAbsent(model, m -> {
+            models.add(m);
+            return models.size() - 1;
+        });
+    }
+
+    String model(int row) {
+        return models.get(model[row]);
+    }
+
+    int modelCount() {
+        return models.size();
+    }
+
+    // 只在需要输出时才把一行物化为Car
+    Car car(int row) {
+        Car car = new Car(id[row], manufacturerId[row], model(row), year[row]);
+        car.setRating(rating[row]);
+        return car;
+    }
+
+    // 按行分块并行评分, 每块一个任务, 直接写入rating列
+    CompletableFuture<Void> rateAsync(RatingFunction ratingFunction, Executor executor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        int rows = size;
+        CompletableFuture<?>[] chunks = new CompletableFuture<?>[(rows + chunkSize - 1) / chunkSize];
+        for (int c = 0; c < chunks.length; c++) {
+            int from = c * chunkSize;
+            int to = Math.min(rows, from + chunkSize);
+            chunks[c] = CompletableFuture.runAsync(() -> {
+                for (int row = from; row < to; row++) {
+                    rating[row] = ratingFunction.rating(manufacturerId[row]);
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(chunks);
+    }
+
+    // 每个不同的manufacturerId只调用一次rater, 然后按行回填rating列; 失败的manufacturer和管道中一样记为-1f
+    CompletableFuture<Void> rateByManufacturerAsync(Function<Integer, CompletableFuture<Float>> rater) {
+        int rows = size;
+        int[] manufacturers = distinctSorted(manufacturerId, rows);
+        float[] ratings = new float[manufacturers.length];
+        CompletableFuture<?>[] lookups = new CompletableFuture<?>[manufacturers.length];
+        for (int i = 0; i < manufacturers.length; i++) {
+            int index = i;
+            lookups[i] = rater.apply(manufacturers[i])
+                    .exceptionally(th -> -1f)
+                    .thenAccept(rate -> ratings[index] = rate);
+        }
+        return CompletableFuture.allOf(lookups).thenRun(() -> {
+            for (int row = 0; row < rows; row++) {
+                rating[row] = ratings[Arrays.binarySearch(manufacturers, manufacturerId[row])];
+            }
+        });
+    }
+
+    // 排序一份副本后原地去重, 不像IntStream.distinct()那样为每一行装箱一个Integer
+    private static int[] distinctSorted(int[] column, int rows) {
+        int[] sorted = Arrays.copyOf(column, rows);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < rows; i++) {
+            if (distinct == 0 || sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private void grow() {
+        int capacity = id.length + (id.length >> 1) + 1;
+        id = Arrays.copyOf(id, capacity);
+        manufacturerId = Arrays.copyOf(manufacturerId, capacity);
+        model = Arrays.copyOf(model, capacity);
+        year = Arrays.copyOf(year, capacity);
+        rating = Arrays.copyOf(rating, capacity);
+    }
+}
@@ -1,10 +1,17 @@
 package com.example.completablefuture;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class CompletableFutureExample {
 
+    static SimulatedRatingService ratingService = new SimulatedRatingService(LatencyModel.fixed(Duration.ofSeconds(5)), 0);
+
     static float rating(int manufacturer) {
         try {
             simulateDelay();
@@ -12,6 +19,30 @@ public class CompletableFutureExample {
             Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
+        return lookup(manufacturer);
+    }
+
+    // 批量查询: 一次远程往返返回所有manufacturer的评分, 结果与manufacturerIds一一对应
+    static float[] ratings(int[] manufacturerIds) {
+        try {
+            simulateDelay();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        float[] ratings = new float[manufacturerIds.length];
+        for (int i = 0; i < manufacturerIds.length; i++) {
+            ratings[i] = lookup(manufacturerIds[i]);
+        }
+        return ratings;
+    }
+
+    // 非阻塞版本: 由定时器完成future, 等待期间不占用任何线程
+    static CompletableFuture<Float> ratingAsync(int manufacturer) {
+        return ratingService.ratingAsync(manufacturer);
+    }
+
+    static float lookup(int manufacturer) {
         switch (manufacturer) {
             case 2:
                 return 4f;
@@ -31,6 +62,11 @@ public class CompletableFutureExample {
                 new Car(3, 2, "M2", 2008));
     }
 
+    // 从二进制目录文件中按需读取汽车, 格式见CarCatalogFile
+    static Iterator<Car> cars(Path catalog) throws IOException {
+        return CarCatalogFile.open(catalog).iterator();
+    }
+
     private static void simulateDelay() throws InterruptedException {
         Thread.sleep(5000);
     }
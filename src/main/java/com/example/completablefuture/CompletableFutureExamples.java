@@ -3,7 +3,6 @@ package com.example.completablefuture;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
-import java.util.StringJoiner;
 import java.util.concurrent.*;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
@@ -26,11 +25,19 @@ public class CompletableFutureExamples {
 
     static Random random = new Random();
 
+    // 记录每个阶段的排队/执行时间和线程切换, 代替在阶段里直接打印
+    static StageInstrumentation instrumentation = new StageInstrumentation();
+
+    static Executor instrumentedExecutor = instrumentation.executor("custom-executor", executor);
+
     public static void main(String[] args) {
         try {
             allOfAsyncExample();
+            // 在instrumentedExecutor上执行的阶段还会记录排队等待时间
+            thenApplyAsyncWithExecutorExample();
         } finally {
             executor.shutdown();
+            System.out.println(instrumentation.snapshot());
         }
     }
 
@@ -46,13 +53,12 @@ public class CompletableFutureExamples {
     static void runAsyncExample() {
         Runnable runAsync = () -> {
             // https://stackoverflow.com/questions/2213340/what-is-a-daemon-thread-in-java
-            printTimeAndThread("runAsync");
             assertTrue(Thread.currentThread().isDaemon());
             randomSleep();
         };
 
         // https://stackoverflow.com/questions/60159153/completablefuture-runasync-vs-supplyasync-when-to-choose-one-over-the-other
-        CompletableFuture<Void> cf = CompletableFuture.runAsync(runAsync);
+        CompletableFuture<Void> cf = CompletableFuture.runAsync(instrumentation.runnable("runAsync", runAsync));
         assertFalse(cf.isDone());
         sleepEnough();
         assertTrue(cf.isDone());
@@ -61,25 +67,23 @@ public class CompletableFutureExamples {
     // 3、在前一个阶段上应用函数
     static void thenApplyExample() {
         Function<String, String> thenApply = s -> {
-            printTimeAndThread("thenApply");
             // thenApply默认情况下不是在守护线程执行
             assertFalse(Thread.currentThread().isDaemon());
             return s.toUpperCase();
         };
-        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApply(thenApply);
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApply(instrumentation.function("thenApply", thenApply));
         assertEquals("MESSAGE", cf.getNow(null));
     }
 
     // 4、在前一个阶段上异步应用函数
     static void thenApplyAsyncExample() {
         Function<String, String> thenApplyAsync = s -> {
-            printTimeAndThread("thenApplyAsync");
             // thenApplyAsync默认情况下是在守护线程执行
             assertTrue(Thread.currentThread().isDaemon());
             randomSleep();
             return s.toUpperCase();
         };
-        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(thenApplyAsync);
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(instrumentation.function("thenApplyAsync", thenApplyAsync));
         assertNull(cf.getNow(null));
         assertEquals("MESSAGE", cf.join());
     }
@@ -87,13 +91,13 @@ public class CompletableFutureExamples {
     // 5、使用定制的Executor在前一个阶段上异步应用函数
     static void thenApplyAsyncWithExecutorExample() {
         Function<String, String> thenApplyAsync = s -> {
-            printTimeAndThread("thenApplyAsync");
             assertTrue(Thread.currentThread().getName().startsWith("custom-executor-"));
             assertFalse(Thread.currentThread().isDaemon());
             randomSleep();
             return s.toUpperCase();
         };
-        CompletableFuture<String> cf = CompletableFuture.completedFuture("message").thenApplyAsync(thenApplyAsync, executor);
+        CompletableFuture<String> cf = CompletableFuture.completedFuture("message")
+                .thenApplyAsync(instrumentation.function("thenApplyAsyncWithExecutor", thenApplyAsync), instrumentedExecutor);
 
         assertNull(cf.getNow(null));
         assertEquals("MESSAGE", cf.join());
@@ -110,11 +114,8 @@ public class CompletableFutureExamples {
     // 7、异步地消费迁移阶段的结果
     static void thenAcceptAsyncExample() {
         StringBuilder result = new StringBuilder();
-        Consumer<String> thenAcceptAsync = s -> {
-            printTimeAndThread("thenAcceptAsync");
-            result.append(s);
-        };
-        CompletableFuture<Void> cf = CompletableFuture.completedFuture("thenAcceptAsync message").thenAcceptAsync(thenAcceptAsync);
+        Consumer<String> thenAcceptAsync = result::append;
+        CompletableFuture<Void> cf = CompletableFuture.completedFuture("thenAcceptAsync message").thenAcceptAsync(instrumentation.consumer("thenAcceptAsync", thenAcceptAsync));
 
         cf.join();
         // cf是异步的，所以需要cf.join以后才能assertTrue的condition为真
@@ -305,7 +306,8 @@ public class CompletableFutureExamples {
         List<String> messages = Arrays.asList("a", "b", "c");
 
         // Async: String to CompletableFuture<String>
-        Function<String, CompletableFuture<String>> function = msg -> CompletableFuture.completedFuture(msg).thenApplyAsync(CompletableFutureExamples::delayedUpperCase);
+        Function<String, CompletableFuture<String>> function = msg -> CompletableFuture.completedFuture(msg)
+                .thenApplyAsync(instrumentation.function("thenApplyAsync", CompletableFutureExamples::delayedUpperCase));
         List<CompletableFuture<String>> futures = messages.stream().map(function).collect(Collectors.toList());
 
         BiConsumer<Void, Throwable> biConsumer = (v, th) -> {
@@ -313,7 +315,8 @@ public class CompletableFutureExamples {
             result.append("done");
         };
 
-        CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete(biConsumer);
+        CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .whenComplete(instrumentation.biConsumer("whenComplete", biConsumer));
 
         // 使用thenApplyAsync()替换那些单个的CompletableFutures的方法，allOf()会在通用池中的线程中异步地执行。所以我们需要调用join方法等待它完成。
         allOf.join();
@@ -355,14 +358,4 @@ public class CompletableFutureExamples {
         }
     }
 
-    private static void printTimeAndThread(String tag) {
-        String result = new StringJoiner("\t|\t")
-                .add(String.valueOf(System.currentTimeMillis()))
-                .add(String.valueOf(Thread.currentThread().getId()))
-                .add(Thread.currentThread().getName())
-                .add(tag)
-                .toString();
-        System.out.println(result);
-    }
-
 }
@@ -0,0 +1,43 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// 端到端的截止时间。在管道入口创建, 沿着thenCompose传递给每一个调用, 每个调用的超时都是剩余的预算。
+final class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    long remainingNanos() {
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+    boolean isExpired() {
+        return remainingNanos() == 0;
+    }
+
+    // 预算用完时以fallback完成。会直接完成传入的future, 所以传入的必须是调用方自己的future
+    // (RatingCache和BatchingRatingClient返回的都是每个调用方自己的副本)
+    <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> future, T fallback) {
+        return future.completeOnTimeout(fallback, remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // 预算用完时以TimeoutException失败
+    <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future) {
+        return future.orTimeout(remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline (remaining=" + TimeUnit.NANOSECONDS.toMillis(remainingNanos()) + " ms)";
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.completablefuture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// 带类型的组合器, 代替 allOf(toArray(new CompletableFuture[0])) 之后再逐个join, 以及返回Object的anyOf。
+// allOf会为n个future建立一棵二叉树的内部完成节点; allAsList只在每个future上挂一个回调,
+// 结果写入预先分配好的数组, 用一个原子计数器倒数, 最后一个完成的回调直接完成结果。
+final class Futures {
+
+    private Futures() {
+    }
+
+    // 所有future都成功时按原顺序返回结果; 任何一个失败时立即以该异常失败
+    @SuppressWarnings("unchecked")
+    static <T> CompletableFuture<List<T>> allAsList(List<? extends CompletableFuture<? extends T>> futures) {
+        int size = futures.size();
+        if (size == 0) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        Object[] results = new Object[size];
+        AtomicInteger remaining = new AtomicInteger(size);
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        for (int i = 0; i < size; i++) {
+            CompletableFuture<? extends T> future = futures.get(i);
+            int index = i;
+            // 已经正常完成的future直接取值, 不挂回调
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                results[index] = future.join();
+                if (remaining.decrementAndGet() == 0) {
+                    result.complete((List<T>) Arrays.asList(results));
+                }
+                continue;
+            }
+            future.whenComplete((value, th) -> {
+                if (th != null) {
+                    result.completeExceptionally(th);
+                } else {
+                    results[index] = value;
+                    if (remaining.decrementAndGet() == 0) {
+                        result.complete((List<T>) Arrays.asList(results));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    // 以第一个完成的future(无论成功还是失败)完成, 但保留了类型。
+    // JDK的anyOf每个输入只有一个完成节点, 比在每个future上挂whenComplete分配得更少, 所以这里直接委托给它
+    @SuppressWarnings("unchecked")
+    static <T> CompletableFuture<T> anyOf(List<? extends CompletableFuture<? extends T>> futures) {
+        return (CompletableFuture<T>) CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // 以第一个成功的结果完成; 只有全部失败时才失败, 异常为最后一个失败的异常
+    static <T> CompletableFuture<T> firstSuccessful(List<? extends CompletableFuture<? extends T>> futures) {
+        if (futures.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("no futures"));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+        // 所有future共享同一个回调对象
+        BiConsumer<T, Throwable> action = (value, th) -> {
+            if (th == null) {
+                result.complete(value);
+            } else if (remaining.decrementAndGet() == 0) {
+                result.completeExceptionally(th);
+            }
+        };
+        for (CompletableFuture<? extends T> future : futures) {
+            if (result.isDone()) {
+                break;
+            }
+            future.whenComplete(action);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// 对冲请求: 如果调用在hedgeDelay(例如观测到的p95)之后还没有完成, 再发送一个重复请求,
+// 取先成功的那个结果, 然后取消另一个。取消的是call返回的future本身, 所以call每次都要返回调用方自己的future
+// (RatingCache和BatchingRatingClient返回的都是副本); 不响应cancel的rater(例如已经在执行的阻塞调用)会继续运行到结束,
+// 只是结果被丢弃。
+// 对冲请求的数量不会超过总请求数的budgetPercent%, 避免后端变慢时对冲请求把流量放大一倍。
+class HedgingPolicy {
+
+    private final long hedgeDelayNanos;
+    private final double budgetPercent;
+    private final Executor executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    HedgingPolicy(Duration hedgeDelay, double budgetPercent) {
+        this(hedgeDelay, budgetPercent, ForkJoinPool.commonPool());
+    }
+
+    HedgingPolicy(Duration hedgeDelay, double budgetPercent, Executor executor) {
+        if (budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent must be in [0, 100]: " + budgetPercent);
+        }
+        this.hedgeDelayNanos = hedgeDelay.toNanos();
+        this.budgetPercent = budgetPercent;
+        this.executor = executor;
+    }
+
+    // 包装一个rating函数, 例如 policy.wrap(CompletableFutureExample::ratingAsync)
+    Function<Integer, CompletableFuture<Float>> wrap(Function<Integer, CompletableFuture<Float>> rater) {
+        return manufacturerId -> hedge(() -> rater.apply(manufacturerId));
+    }
+
+    <T> CompletableFuture<T> hedge(Supplier<CompletableFuture<T>> call) {
+        requests.incrementAndGet();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> primary = attempt(call);
+        result.whenComplete((v, th) -> primary.cancel(true));
+        // 在对冲请求发出之前完成时, 由primary决定结果; 之后由firstSuccessful决定
+        AtomicBoolean decided = new AtomicBoolean();
+        primary.whenComplete((value, th) -> {
+            if (decided.compareAndSet(false, true)) {
+                relay(value, th, result);
+            }
+        });
+        if (primary.isDone()) {
+            return result;
+        }
+
+        CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS, executor).execute(() -> {
+            if (!decided.compareAndSet(false, true)) {
+                return;
+            }
+            if (!tryAcquireHedge()) {
+                primary.whenComplete((value, th) -> relay(value, th, result));
+                return;
+            }
+            CompletableFuture<T> hedge = attempt(call);
+            result.whenComplete((v, th) -> hedge.cancel(true));
+            // 取第一个成功的结果, 只有两个都失败时才失败
+            Futures.firstSuccessful(List.of(primary, hedge)).whenComplete((value, th) -> relay(value, th, result));
+        });
+        return result;
+    }
+
+    long hedgeCount() {
+        return hedges.get();
+    }
+
+    long requestCount() {
+        return requests.get();
+    }
+
+    private boolean tryAcquireHedge() {
+        long allowed = (long) (requests.get() * budgetPercent / 100);
+        while (true) {
+            long current = hedges.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (hedges.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> attempt(Supplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> void relay(T value, Throwable th, CompletableFuture<T> target) {
+        if (th != null) {
+            target.completeExceptionally(th);
+        } else {
+            target.complete(value);
+        }
+    }
+}
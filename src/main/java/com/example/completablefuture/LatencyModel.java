@@ -0,0 +1,52 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 模拟远程调用的延迟分布
+@FunctionalInterface
+interface LatencyModel {
+
+    long nextDelayNanos();
+
+    // concurrentCalls为包括这一次在内正在进行的调用数; 默认的延迟与并发无关
+    default long nextDelayNanos(int concurrentCalls) {
+        return nextDelayNanos();
+    }
+
+    static LatencyModel fixed(Duration delay) {
+        long nanos = delay.toNanos();
+        return () -> nanos;
+    }
+
+    static LatencyModel uniform(Duration min, Duration max) {
+        long minNanos = min.toNanos();
+        long maxNanos = max.toNanos();
+        if (maxNanos < minNanos) {
+            throw new IllegalArgumentException("max < min: " + max + " < " + min);
+        }
+        return () -> minNanos == maxNanos ? minNanos : ThreadLocalRandom.current().nextLong(minNanos, maxNanos + 1);
+    }
+
+    // 对数正态分布: 中位数为median, sigma越大长尾越明显
+    static LatencyModel logNormal(Duration median, double sigma) {
+        double medianNanos = median.toNanos();
+        return () -> (long) (medianNanos * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    // 会过载的后端: 并发调用超过capacity之后, 每多一个调用延迟增加perExtraCall, 用来验证并发限制能否避免延迟崩溃
+    static LatencyModel congested(LatencyModel base, int capacity, Duration perExtraCall) {
+        long perExtraCallNanos = perExtraCall.toNanos();
+        return new LatencyModel() {
+            @Override
+            public long nextDelayNanos() {
+                return base.nextDelayNanos();
+            }
+
+            @Override
+            public long nextDelayNanos(int concurrentCalls) {
+                return base.nextDelayNanos(concurrentCalls) + Math.max(0, concurrentCalls - capacity) * perExtraCallNanos;
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+// 开环(open loop)压测: 按固定的目标速率发起管道调用, 不等待前一个调用完成。
+// 延迟从每个请求"计划的"开始时间算起, 而不是实际发出的时间, 这样发送端落后时的排队时间也会计入(修正coordinated omission)。
+// 用法: LoadGenerator [rate/s] [durationSeconds] [medianLatencyMillis] [strategy,strategy,...]
+public class LoadGenerator extends CompletableFutureExample {
+
+    static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    public static void main(String[] args) {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int durationSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int latencyMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        List<String> strategies = args.length > 3 ? Arrays.asList(args[3].split(","))
+                : Arrays.asList("commonPool", "customExecutor", "nonBlocking", "adaptive", "priority");
+
+        // 后端同时处理超过50个调用之后开始变慢, 不限制并发的策略在高速率下会出现延迟崩溃
+        LatencyModel latency = LatencyModel.congested(LatencyModel.logNormal(Duration.ofMillis(latencyMillis), 0.5),
+                50, Duration.ofMillis(latencyMillis).dividedBy(10));
+
+        System.out.println("rate=" + rate + "/s, duration=" + durationSeconds + "s, median latency=" + latencyMillis + "ms");
+        for (String name : strategies) {
+            // 每个策略使用自己的服务线程池, 并且在下一个策略开始之前等待它遗留的任务(包括公共线程池里的)全部结束,
+            // 否则后面的策略会排在前一个策略的积压之后
+            ExecutorService serviceExecutor = new ForkJoinPool();
+            Strategy strategy = strategy(name, new SimulatedRatingService(latency, 0.01, serviceExecutor));
+            try {
+                System.out.println(run(name, strategy.rating, rate, Duration.ofSeconds(durationSeconds)));
+            } finally {
+                strategy.shutdown.run();
+                awaitTermination(serviceExecutor);
+                ForkJoinPool.commonPool().awaitQuiescence(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    static void awaitTermination(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 每个执行策略都是一个 manufacturerId -> CompletableFuture<Float> 的评分函数, 以及关闭它所需的清理动作
+    static final class Strategy {
+        final Function<Integer, CompletableFuture<Float>> rating;
+        final Runnable shutdown;
+
+        Strategy(Function<Integer, CompletableFuture<Float>> rating, Runnable shutdown) {
+            this.rating = rating;
+            this.shutdown = shutdown;
+        }
+    }
+
+    static Strategy strategy(String name, SimulatedRatingService service) {
+        switch (name) {
+            case "commonPool":
+                return new Strategy(id -> CompletableFuture.supplyAsync(() -> service.rating(id)), () -> {
+                });
+            case "customExecutor": {
+                ExecutorService executor = Executors.newFixedThreadPool(3);
+                return new Strategy(id -> CompletableFuture.supplyAsync(() -> service.rating(id), executor),
+                        () -> awaitTermination(executor));
+            }
+            case "nonBlocking":
+                return new Strategy(service::ratingAsync, () -> {
+                });
+            case "adaptive": {
+                ExecutorService executor = Executors.newFixedThreadPool(64);
+                AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(executor, 8, 1, 64, 1_000, 2.0);
+                return new Strategy(id -> limiter.supplyAsync(() -> service.rating(id)), () -> awaitTermination(executor));
+            }
+            case "priority": {
+                PriorityExecutor executor = new PriorityExecutor(16, "load-priority", Duration.ofSeconds(1));
+                Executor interactive = executor.forPriority(PriorityExecutor.Priority.INTERACTIVE);
+                return new Strategy(id -> CompletableFuture.supplyAsync(() -> service.rating(id), interactive), () -> {
+                    executor.shutdown();
+                    try {
+                        executor.awaitTermination(DRAIN_TIMEOUT);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + name);
+        }
+    }
+
+    static Report run(String name, Function<Integer, CompletableFuture<Float>> rating, int rate, Duration duration) {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong completed = new AtomicLong();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long requests = duration.getSeconds() * rate;
+        // 还没完成的请求的序号。完成回调和超时清点都要先从这里remove成功才记录, 每个请求只记录一次
+        Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+        CountDownLatch finished = new CountDownLatch(Math.toIntExact(requests));
+
+        long start = System.nanoTime();
+        for (long i = 0; i < requests; i++) {
+            Long request = i;
+            long intendedStart = start + i * intervalNanos;
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            CompletableFuture<List<Car>> invocation;
+            try {
+                invocation = pipeline(rating);
+            } catch (RuntimeException e) {
+                // 例如执行器拒绝了任务
+                invocation = CompletableFuture.failedFuture(e);
+            }
+            inFlight.add(request);
+            invocation.whenComplete((cars, th) -> {
+                if (!inFlight.remove(request)) {
+                    return;
+                }
+                latency.record(System.nanoTime() - intendedStart);
+                if (th != null) {
+                    errors.incrementAndGet();
+                } else {
+                    completed.incrementAndGet();
+                }
+                finished.countDown();
+            });
+        }
+
+        // 发送结束后等待剩余的请求; 超时仍未完成的请求计为超时, 延迟按到现在为止的时间记录, 不会从直方图中消失
+        try {
+            finished.await(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long now = System.nanoTime();
+        long timedOut = 0;
+        for (Long request : inFlight) {
+            if (inFlight.remove(request)) {
+                latency.record(now - (start + request * intervalNanos));
+                timedOut++;
+            }
+        }
+        return new Report(name, requests, completed.get(), errors.get(), timedOut, now - start, latency.copy());
+    }
+
+    // 一次管道调用: 为所有汽车评分, 不使用-1f兜底, 让失败体现在错误数中
+    static CompletableFuture<List<Car>> pipeline(Function<Integer, CompletableFuture<Float>> rating) {
+        List<CompletableFuture<Car>> updatedCars = new ArrayList<>();
+        for (Car car : cars()) {
+            updatedCars.add(rating.apply(car.manufacturerId).thenApply(rate -> {
+                car.setRating(rate);
+                return car;
+            }));
+        }
+        return Futures.allAsList(updatedCars);
+    }
+
+    static final class Report {
+        final String strategy;
+        final long sent;
+        final long completed;
+        final long errors;
+        final long timedOut;
+        final long elapsedNanos;
+        final LatencyHistogram latency;
+
+        Report(String strategy, long sent, long completed, long errors, long timedOut, long elapsedNanos, LatencyHistogram latency) {
+            this.strategy = strategy;
+            this.sent = sent;
+            this.completed = completed;
+            this.errors = errors;
+            this.timedOut = timedOut;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        double throughput() {
+            return completed * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put("sent", String.valueOf(sent));
+            fields.put("ok", String.valueOf(completed));
+            fields.put("errors", String.valueOf(errors));
+            fields.put("timedOut", String.valueOf(timedOut));
+            fields.put("throughput", String.format("%.1f/s", throughput()));
+            fields.put("p50", millis(latency.percentile(50)));
+            fields.put("p99", millis(latency.percentile(99)));
+            fields.put("p99.9", millis(latency.percentile(99.9)));
+            fields.put("max", millis(latency.max()));
+            StringBuilder result = new StringBuilder(String.format("%-15s", strategy));
+            fields.forEach((key, value) -> result.append(' ').append(key).append('=').append(value));
+            return result.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.1fms", nanos / 1e6);
+        }
+    }
+}
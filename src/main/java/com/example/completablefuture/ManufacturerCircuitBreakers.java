@@ -0,0 +1,185 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// 按manufacturerId划分的断路器和舱壁(bulkhead)。
+// 断路器: 最近windowSize次调用中失败率或慢调用率达到阈值时打开, openDuration之后进入半开状态放行halfOpenCalls次试探调用,
+// 试探都成功则关闭, 否则重新打开。舱壁: 每个manufacturer同时最多maxConcurrentCalls个调用。
+// 每个许可都记录获取时所处的状态代数(generation), 状态变化之后才完成的旧调用不再计入, 半开状态只统计试探调用。
+// 超过callTimeout还没完成的调用以TimeoutException失败并释放舱壁许可(rater必须为每个调用返回独立的future), 永远不完成的rater不会把舱壁占满。
+// 被拒绝的调用直接返回以RejectedExecutionException失败的future, 不会调用rater(不调度任何任务), 由调用方的exceptionally兜底。
+class ManufacturerCircuitBreakers {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final int maxConcurrentCalls;
+    private final long callTimeoutNanos;
+    private final Map<Integer, Breaker> breakers = new ConcurrentHashMap<>();
+
+    ManufacturerCircuitBreakers(int windowSize, double failureRateThreshold, Duration slowCallThreshold,
+                                double slowCallRateThreshold, Duration openDuration, int halfOpenCalls,
+                                int maxConcurrentCalls, Duration callTimeout) {
+        if (windowSize <= 0 || halfOpenCalls <= 0 || maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("windowSize, halfOpenCalls and maxConcurrentCalls must be positive");
+        }
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallThreshold.toNanos();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.callTimeoutNanos = callTimeout.toNanos();
+    }
+
+    Function<Integer, CompletableFuture<Float>> wrap(Function<Integer, CompletableFuture<Float>> rater) {
+        return manufacturerId -> call(manufacturerId, rater);
+    }
+
+    <T> CompletableFuture<T> call(int manufacturerId, Function<Integer, CompletableFuture<T>> rater) {
+        Breaker breaker = breakers.computeIfAbsent(manufacturerId, id -> new Breaker());
+        Permit permit = breaker.tryAcquire();
+        if (permit.rejection != null) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Rating for manufacturer " + manufacturerId + " rejected: " + permit.rejection));
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            // rater返回的是这个调用方自己的future, 可以直接在它上面设置超时
+            result = rater.apply(manufacturerId).orTimeout(callTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            breaker.onComplete(permit, System.nanoTime() - start, true);
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, th) -> breaker.onComplete(permit, System.nanoTime() - start, th != null));
+    }
+
+    State state(int manufacturerId) {
+        Breaker breaker = breakers.get(manufacturerId);
+        return breaker == null ? State.CLOSED : breaker.state();
+    }
+
+    private static final class Permit {
+        final long generation;
+        final String rejection;
+
+        Permit(long generation, String rejection) {
+            this.generation = generation;
+            this.rejection = rejection;
+        }
+    }
+
+    private final class Breaker {
+        // 环形缓冲区记录最近windowSize次调用的结果
+        private final boolean[] failed = new boolean[windowSize];
+        private final boolean[] slow = new boolean[windowSize];
+        private int recorded;
+        private int next;
+        private int failures;
+        private int slowCalls;
+
+        private State state = State.CLOSED;
+        // 每次状态变化加1, 用来识别在之前的状态中获取许可的调用
+        private long generation;
+        private long openedAt;
+        private int trialsStarted;
+        private int trialsCompleted;
+        private int concurrentCalls;
+
+        // 被拒绝时返回的Permit带有拒绝原因
+        synchronized Permit tryAcquire() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return new Permit(generation, "circuit open");
+                }
+                state = State.HALF_OPEN;
+                generation++;
+                trialsStarted = 0;
+                trialsCompleted = 0;
+            }
+            if (state == State.HALF_OPEN && trialsStarted >= halfOpenCalls) {
+                return new Permit(generation, "circuit half-open, waiting for trial calls");
+            }
+            if (concurrentCalls >= maxConcurrentCalls) {
+                return new Permit(generation, "bulkhead full (" + maxConcurrentCalls + " concurrent calls)");
+            }
+            if (state == State.HALF_OPEN) {
+                trialsStarted++;
+            }
+            concurrentCalls++;
+            return new Permit(generation, null);
+        }
+
+        synchronized void onComplete(Permit permit, long durationNanos, boolean callFailed) {
+            concurrentCalls--;
+            if (permit.generation != generation) {
+                // 在之前的状态中获取许可的调用(例如打开之前就已经发出的调用), 结果不再计入;
+                // 半开状态下同一代的许可都是试探调用
+                return;
+            }
+            boolean callSlow = durationNanos >= slowCallNanos;
+            if (state == State.HALF_OPEN) {
+                if (callFailed || callSlow) {
+                    open();
+                } else if (++trialsCompleted >= halfOpenCalls) {
+                    close();
+                }
+                return;
+            }
+            record(callFailed, callSlow);
+            if (recorded >= windowSize
+                    && (failures * 100.0 / recorded >= failureRateThreshold || slowCalls * 100.0 / recorded >= slowCallRateThreshold)) {
+                open();
+            }
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        private void record(boolean callFailed, boolean callSlow) {
+            if (recorded == windowSize) {
+                failures -= failed[next] ? 1 : 0;
+                slowCalls -= slow[next] ? 1 : 0;
+            } else {
+                recorded++;
+            }
+            failed[next] = callFailed;
+            slow[next] = callSlow;
+            failures += callFailed ? 1 : 0;
+            slowCalls += callSlow ? 1 : 0;
+            next = (next + 1) % windowSize;
+        }
+
+        private void open() {
+            state = State.OPEN;
+            generation++;
+            openedAt = System.nanoTime();
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            generation++;
+            recorded = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+}
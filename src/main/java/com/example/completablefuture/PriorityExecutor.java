@@ -0,0 +1,174 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 按优先级调度的线程池: 交互式的单车查询不会排在大批量的重新评分任务后面。
+// 各优先级之间按权重做平滑加权轮询(weighted fair), 某个队列头部的任务等待超过agingThreshold时按高一级的权重竞争(aging), 防止低优先级饿死。
+// 通过forPriority(priority)得到一个Executor视图, 传给*Async(fn, executor)即可为一次管道调用指定优先级。
+class PriorityExecutor implements Executor {
+
+    enum Priority {
+        INTERACTIVE(8), NORMAL(3), BATCH(1);
+
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final long agingThresholdNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final List<ArrayDeque<Task>> queues = new ArrayList<>();
+    private final int[] currentWeights = new int[PRIORITIES.length];
+    private final List<Thread> workers = new ArrayList<>();
+    private boolean shutdown;
+
+    PriorityExecutor(int threads, String namePrefix, Duration agingThreshold) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.agingThresholdNanos = agingThreshold.toNanos();
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        for (int i = 1; i <= threads; i++) {
+            Thread worker = new Thread(this::work, namePrefix + "-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    Executor forPriority(Priority priority) {
+        return command -> execute(command, priority);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, Priority.NORMAL);
+    }
+
+    void execute(Runnable command, Priority priority) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("PriorityExecutor has been shut down");
+            }
+            queues.get(priority.ordinal()).addLast(new Task(command, System.nanoTime()));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queued(Priority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority.ordinal()).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 已经排队的任务会执行完, 之后工作线程退出
+    void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 等待工作线程在shutdown之后执行完已经排队的任务, 超时返回false
+    boolean awaitTermination(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Thread worker : workers) {
+            if (!worker.isAlive()) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void work() {
+        while (true) {
+            Runnable command;
+            lock.lock();
+            try {
+                Task task;
+                while ((task = next()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+                command = task.command;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                command.run();
+            } catch (Throwable th) {
+                // 包括Error: 任务的失败只报告, 不结束工作线程, 否则线程池会悄悄变小
+                Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), th);
+            }
+        }
+    }
+
+    // 调用时必须持有lock
+    private Task next() {
+        long now = System.nanoTime();
+        int totalWeight = 0;
+        int selected = -1;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            Task head = queues.get(i).peekFirst();
+            if (head == null) {
+                currentWeights[i] = 0;
+                continue;
+            }
+            // 队列头部等待太久时, 这一轮按高一级的权重参与竞争
+            int weight = now - head.enqueuedAt >= agingThresholdNanos ? PRIORITIES[Math.max(0, i - 1)].weight : PRIORITIES[i].weight;
+            currentWeights[i] += weight;
+            totalWeight += weight;
+            if (selected < 0 || currentWeights[i] > currentWeights[selected]) {
+                selected = i;
+            }
+        }
+        if (selected < 0) {
+            return null;
+        }
+        currentWeights[selected] -= totalWeight;
+        return queues.get(selected).pollFirst();
+    }
+
+    private static final class Task {
+        final Runnable command;
+        final long enqueuedAt;
+
+        Task(Runnable command, long enqueuedAt) {
+            this.command = command;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.completablefuture;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// 以Flow.Publisher的形式输出评分完成的Car: 按完成顺序推送, 已发起但未被request的评分不会超过订阅者的需求,
+// 同时进行中的评分最多maxInFlight个。每个订阅者都会从cars重新拉取一遍汽车目录。
+class RatedCarPublisher implements Flow.Publisher<Car> {
+
+    private final Supplier<? extends Iterator<Car>> cars;
+    private final Function<Car, CompletableFuture<Car>> rateCar;
+    private final int maxInFlight;
+
+    RatedCarPublisher(Supplier<? extends Iterator<Car>> cars, Function<Car, CompletableFuture<Car>> rateCar, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.cars = cars;
+        this.rateCar = rateCar;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Car> subscriber) {
+        Iterator<Car> source;
+        try {
+            source = cars.get();
+        } catch (RuntimeException e) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        RatingSubscription subscription = new RatingSubscription(subscriber, source);
+        subscriber.onSubscribe(subscription);
+    }
+
+    // 所有对subscriber的调用和对source的访问都在drain循环里串行执行
+    private final class RatingSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Car> subscriber;
+        private final Iterator<Car> source;
+        private final Queue<Car> rated = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        // 已发起但还没有推送给订阅者的评分(包括进行中的和已经在rated中排队的)
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean exhausted;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private boolean terminated;
+
+        RatingSubscription(Flow.Subscriber<? super Car> subscriber, Iterator<Car> source) {
+            this.subscriber = subscriber;
+            this.source = source;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive subscription request: " + n);
+            } else {
+                requested.accumulateAndGet(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void onRated(Car car, Throwable th) {
+            inFlight.decrementAndGet();
+            if (th != null) {
+                error = th;
+            } else {
+                rated.offer(car);
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (!terminated) {
+                    drainOnce();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private void drainOnce() {
+            if (cancelled) {
+                terminated = true;
+                rated.clear();
+                return;
+            }
+            if (error != null) {
+                terminated = true;
+                subscriber.onError(error);
+                return;
+            }
+
+            Car car;
+            while (requested.get() > 0 && (car = rated.poll()) != null) {
+                requested.decrementAndGet();
+                pending.decrementAndGet();
+                subscriber.onNext(car);
+                if (cancelled) {
+                    return;
+                }
+            }
+
+            try {
+                while (!exhausted && pending.get() < requested.get() && inFlight.get() < maxInFlight) {
+                    if (!source.hasNext()) {
+                        exhausted = true;
+                        break;
+                    }
+                    Car next = source.next();
+                    pending.incrementAndGet();
+                    inFlight.incrementAndGet();
+                    // 如果返回的是已完成的future, onRated会同步回调, 此时wip不为0, 只会让外层循环再跑一遍
+                    rateCar.apply(next).whenComplete(this::onRated);
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            if (error != null) {
+                terminated = true;
+                subscriber.onError(error);
+            } else if (exhausted && pending.get() == 0) {
+                terminated = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// 以manufacturerId为key缓存CompletableFuture<Float>, 同一个manufacturer的并发调用共享同一个进行中的rating调用。
+// 缓存的是loader返回的原始future, exceptionally(th -> -1f)由调用方在缓存之后再应用, 所以-1f永远不会被当作正常值缓存。
+// 每个调用方拿到的是缓存future的副本, 调用方cancel/complete它不会影响缓存和其他调用方。
+class RatingCache {
+
+    private final Function<Integer, CompletableFuture<Float>> loader;
+    private final int maximumSize;
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+    private final long failureTtlNanos;
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    // 按写入顺序排列的entry, 淘汰时从队头取; 已经被替换或删除的entry在经过队头时丢弃
+    private final Queue<Entry> writeOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger writeOrderSize = new AtomicInteger();
+
+    RatingCache(Function<Integer, CompletableFuture<Float>> loader, int maximumSize,
+                Duration expireAfterWrite, Duration refreshAfterWrite, Duration failureTtl) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.loader = loader;
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = expireAfterWrite.toNanos();
+        this.refreshAfterWriteNanos = refreshAfterWrite.toNanos();
+        this.failureTtlNanos = failureTtl.toNanos();
+    }
+
+    CompletableFuture<Float> get(int manufacturerId) {
+        long now = System.nanoTime();
+        Entry[] created = new Entry[1];
+        Entry entry = entries.compute(manufacturerId, (id, current) -> {
+            if (current == null || current.isExpired(now)) {
+                created[0] = new Entry(id, now);
+                return created[0];
+            }
+            return current;
+        });
+
+        if (entry == created[0]) {
+            // 只有创建entry的线程才会真正调用loader, 其他线程拿到的是同一个进行中的future
+            load(manufacturerId, entry);
+            enqueue(entry);
+            evictIfNeeded();
+        } else if (entry.shouldRefresh(now)) {
+            refresh(manufacturerId, entry);
+        }
+        return entry.future.copy();
+    }
+
+    void invalidate(int manufacturerId) {
+        entries.remove(manufacturerId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void load(int manufacturerId, Entry entry) {
+        CompletableFuture<Float> source;
+        try {
+            source = loader.apply(manufacturerId);
+        } catch (RuntimeException e) {
+            source = CompletableFuture.failedFuture(e);
+        }
+        source.whenComplete((rating, th) -> {
+            entry.completedAt = System.nanoTime();
+            if (th != null) {
+                entry.failed = true;
+                if (failureTtlNanos <= 0) {
+                    entries.remove(manufacturerId, entry);
+                }
+                entry.future.completeExceptionally(th);
+            } else {
+                entry.future.complete(rating);
+            }
+        });
+    }
+
+    // refresh-ahead: 在过期之前后台重新加载, 调用方在此期间继续拿到旧值; 刷新失败时保留旧值直到过期
+    private void refresh(int manufacturerId, Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture<Float> source;
+        try {
+            source = loader.apply(manufacturerId);
+        } catch (RuntimeException e) {
+            entry.refreshing.set(false);
+            return;
+        }
+        source.whenComplete((rating, th) -> {
+            if (th == null) {
+                Entry refreshed = new Entry(manufacturerId, System.nanoTime());
+                refreshed.completedAt = refreshed.createdAt;
+                refreshed.future.complete(rating);
+                if (entries.replace(manufacturerId, entry, refreshed)) {
+                    enqueue(refreshed);
+                }
+            } else {
+                entry.refreshing.set(false);
+            }
+        });
+    }
+
+    private void enqueue(Entry entry) {
+        writeOrder.add(entry);
+        // 过期替换和invalidate留下的失效entry超过一半时清理一次, 队列长度保持在O(maximumSize)
+        if (writeOrderSize.incrementAndGet() > 2 * Math.max(maximumSize, entries.size())) {
+            writeOrder.removeIf(this::isStale);
+            writeOrderSize.set(writeOrder.size());
+        }
+    }
+
+    private boolean isStale(Entry entry) {
+        return entries.get(entry.manufacturerId) != entry;
+    }
+
+    // 超过maximumSize时从队头淘汰最早写入的已完成entry, 每次淘汰均摊O(1);
+    // 进行中的entry不淘汰以免破坏去重, 把它移到队尾, 全部都在进行中时放弃
+    private void evictIfNeeded() {
+        int inFlight = 0;
+        while (entries.size() > maximumSize) {
+            Entry oldest = writeOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            if (isStale(oldest)) {
+                writeOrderSize.decrementAndGet();
+                continue;
+            }
+            if (!oldest.future.isDone()) {
+                writeOrder.add(oldest);
+                if (++inFlight > maximumSize) {
+                    return;
+                }
+                continue;
+            }
+            writeOrderSize.decrementAndGet();
+            entries.remove(oldest.manufacturerId, oldest);
+        }
+    }
+
+    private final class Entry {
+        final CompletableFuture<Float> future = new CompletableFuture<>();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        final int manufacturerId;
+        final long createdAt;
+        volatile long completedAt;
+        volatile boolean failed;
+
+        Entry(int manufacturerId, long createdAt) {
+            this.manufacturerId = manufacturerId;
+            this.createdAt = createdAt;
+        }
+
+        boolean isExpired(long now) {
+            if (!future.isDone()) {
+                return false;
+            }
+            long ttl = failed ? failureTtlNanos : expireAfterWriteNanos;
+            return now - completedAt >= ttl;
+        }
+
+        boolean shouldRefresh(long now) {
+            return future.isDone() && !failed && refreshAfterWriteNanos > 0
+                    && now - completedAt >= refreshAfterWriteNanos;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.completablefuture;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+// 拥有在thenCompose扇出中fork出来的所有任务。cancel()(或close())会真正中断还在运行的任务并释放线程,
+// 而不只是像cancel(true)那样让CompletableFuture异常完成。failFast时任何一个任务失败都会取消其余的任务。
+class RatingScope implements AutoCloseable {
+
+    private final Executor executor;
+    private final boolean failFast;
+    private final Set<FutureTask<?>> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    RatingScope(Executor executor, boolean failFast) {
+        this.executor = executor;
+        this.failFast = failFast;
+    }
+
+    <T> CompletableFuture<T> fork(Supplier<T> supplier) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        FutureTask<T> task = new FutureTask<T>(supplier::get) {
+            @Override
+            protected void done() {
+                running.remove(this);
+                if (isCancelled()) {
+                    result.cancel(false);
+                    return;
+                }
+                try {
+                    result.complete(get());
+                } catch (ExecutionException e) {
+                    result.completeExceptionally(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.completeExceptionally(e);
+                }
+            }
+        };
+
+        // 调用方取消返回的future时, 同样中断底层任务
+        result.whenComplete((v, th) -> {
+            if (th == null) {
+                return;
+            }
+            if (result.isCancelled()) {
+                task.cancel(true);
+            } else if (failFast) {
+                cancel();
+            }
+        });
+
+        running.add(task);
+        if (cancelled) {
+            task.cancel(false);
+            return result;
+        }
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            running.remove(task);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    void cancel() {
+        cancelled = true;
+        for (FutureTask<?> task : running) {
+            task.cancel(true);
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    int runningCount() {
+        return running.size();
+    }
+
+    @Override
+    public void close() {
+        cancel();
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.completablefuture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+// 持久化的评分快照: 只追加的日志, 每条记录为 type(byte), carId(int), manufacturerId(int), rating(float), time(long, epoch毫秒)。
+// RATING记录一辆车的评分和评分时间; DIRTY记录manufacturer被标记为dirty的时间, carId和rating不使用。
+// 打开时重放日志(同一辆车以最后一条记录为准), 下一次运行只需要重新评分没有记录的、过期的、
+// 或者manufacturer被标记为dirty之后还没有重新评分的汽车。日志中的过时记录超过一半时自动压缩。
+final class RatingSnapshot implements AutoCloseable {
+
+    static final int MAGIC = 0x52415453;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 21;
+    static final byte RATING = 1;
+    static final byte DIRTY = 2;
+    private static final int MIN_COMPACTION_RECORDS = 1_024;
+
+    private final Path path;
+    private final long ttlMillis;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final Map<Integer, Long> dirtySince = new HashMap<>();
+    private DataOutputStream log;
+    private long logRecords;
+    private long nextCompactionAt = MIN_COMPACTION_RECORDS;
+    private IOException compactionFailure;
+
+    private RatingSnapshot(Path path, Duration ttl) {
+        this.path = path;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    static RatingSnapshot open(Path path, Duration ttl) throws IOException {
+        RatingSnapshot snapshot = new RatingSnapshot(path, ttl);
+        if (Files.exists(path)) {
+            snapshot.replay();
+        } else {
+            snapshot.writeFile(path);
+        }
+        snapshot.log = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND)));
+        return snapshot;
+    }
+
+    // 该manufacturer在此之前的评分都视为过期; 标记写入日志, 下次打开时仍然有效
+    synchronized void markDirty(int manufacturerId) throws IOException {
+        long now = System.currentTimeMillis();
+        writeRecord(log, DIRTY, 0, manufacturerId, Car.UNRATED, now);
+        dirtySince.put(manufacturerId, now);
+        logRecords++;
+    }
+
+    synchronized boolean needsRating(Car car) {
+        Entry entry = entries.get(car.id);
+        if (entry == null || entry.manufacturerId != car.manufacturerId) {
+            return true;
+        }
+        if (System.currentTimeMillis() - entry.ratedAt >= ttlMillis) {
+            return true;
+        }
+        Long dirty = dirtySince.get(car.manufacturerId);
+        return dirty != null && entry.ratedAt <= dirty;
+    }
+
+    // 用快照中的评分填充car, 快照中没有有效评分时返回false
+    synchronized boolean restore(Car car) {
+        if (needsRating(car)) {
+            return false;
+        }
+        car.setRating(entries.get(car.id).rating);
+        return true;
+    }
+
+    // 失败(-1f)和未评分(Car.UNRATED)的结果不写入快照, 下次运行会重新评分
+    synchronized void append(Car car) throws IOException {
+        if (!car.isRated() || car.rating < 0) {
+            return;
+        }
+        long ratedAt = System.currentTimeMillis();
+        writeRecord(log, RATING, car.id, car.manufacturerId, car.rating, ratedAt);
+        entries.put(car.id, new Entry(car.manufacturerId, car.rating, ratedAt));
+        logRecords++;
+        if (logRecords >= nextCompactionAt && logRecords > 2L * (entries.size() + dirtySince.size())) {
+            // 记录已经写入, 压缩失败不影响这次append; 日志仍然可用, 再追加MIN_COMPACTION_RECORDS条记录之后重试
+            try {
+                compact();
+            } catch (IOException e) {
+                compactionFailure = e;
+                nextCompactionAt = logRecords + MIN_COMPACTION_RECORDS;
+                System.err.println("Compaction of rating snapshot " + path + " failed: " + e);
+            }
+        }
+    }
+
+    // 最近一次自动压缩失败的原因, 没有失败时为null
+    synchronized IOException compactionFailure() {
+        return compactionFailure;
+    }
+
+    // 只保留每辆车的最新记录和还没过期的dirty标记, 先写到临时文件再原子替换。
+    // 写临时文件失败时日志保持打开; 关闭或替换失败时也会重新打开日志。
+    synchronized void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        dirtySince.values().removeIf(since -> now - since >= ttlMillis);
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            writeFile(compacted);
+        } catch (IOException e) {
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+        try {
+            try {
+                log.close();
+            } finally {
+                // 关闭时的最后一次刷新失败也照样替换: 压缩文件里已经有内存中的全部记录
+                Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logRecords = entries.size() + dirtySince.size();
+                nextCompactionAt = MIN_COMPACTION_RECORDS;
+                compactionFailure = null;
+            }
+        } finally {
+            log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.APPEND)));
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void flush() throws IOException {
+        log.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private void replay() throws IOException {
+        long validLength = HEADER_SIZE;
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a rating snapshot: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported rating snapshot version: " + version);
+            }
+            while (true) {
+                byte type;
+                int carId;
+                Entry entry;
+                try {
+                    type = in.readByte();
+                    carId = in.readInt();
+                    entry = new Entry(in.readInt(), in.readFloat(), in.readLong());
+                } catch (EOFException e) {
+                    break;
+                }
+                if (type == RATING) {
+                    entries.put(carId, entry);
+                } else if (type == DIRTY) {
+                    dirtySince.merge(entry.manufacturerId, entry.ratedAt, Math::max);
+                } else {
+                    throw new IOException("Corrupt rating snapshot: unknown record type " + type + " at " + validLength);
+                }
+                logRecords++;
+                validLength += RECORD_SIZE;
+            }
+        }
+        // 上次运行中断时可能留下不完整的最后一条记录, 截掉它
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    private void writeFile(Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<Integer, Long> dirty : dirtySince.entrySet()) {
+                writeRecord(out, DIRTY, 0, dirty.getKey(), Car.UNRATED, dirty.getValue());
+            }
+            for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writeRecord(out, RATING, e.getKey(), entry.manufacturerId, entry.rating, entry.ratedAt);
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, int carId, int manufacturerId, float rating, long time)
+            throws IOException {
+        out.writeByte(type);
+        out.writeInt(carId);
+        out.writeInt(manufacturerId);
+        out.writeFloat(rating);
+        out.writeLong(time);
+    }
+
+    private static final class Entry {
+        final int manufacturerId;
+        final float rating;
+        final long ratedAt;
+
+        Entry(int manufacturerId, float rating, long ratedAt) {
+            this.manufacturerId = manufacturerId;
+            this.rating = rating;
+            this.ratedAt = ratedAt;
+        }
+    }
+}
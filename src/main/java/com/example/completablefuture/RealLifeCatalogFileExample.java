@@ -0,0 +1,52 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class RealLifeCatalogFileExample extends CompletableFutureExample {
+
+    public static void main(String[] args) throws IOException {
+        int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path csv = Files.createTempFile("cars", ".csv");
+        Path catalog = Files.createTempFile("cars", ".bin");
+        SimulatedRatingService service = new SimulatedRatingService(LatencyModel.fixed(Duration.ofMillis(50)), 0);
+
+        try {
+            // 1、把文本目录转换为二进制目录
+            List<Car> generated = IntStream.range(0, catalogSize)
+                    .mapToObj(i -> new Car(i, i % 50, "Model-" + (i % 1000), 2000 + i % 20))
+                    .collect(Collectors.toList());
+            CarCatalogFile.writeCsv(generated, csv);
+            CarCatalogFile.convertCsv(csv, catalog);
+            System.out.println("Catalog: " + Files.size(catalog) + " bytes (csv: " + Files.size(csv) + " bytes)");
+
+            long start = System.currentTimeMillis();
+
+            // 2、通过内存映射按需读取汽车, 第一行读出来就可以开始评分
+            Function<Car, CompletableFuture<Car>> function = car -> service.ratingAsync(car.manufacturerId)
+                    .exceptionally(th -> -1f)
+                    .thenApply(rate -> {
+                        car.setRating(rate);
+                        return car;
+                    });
+            AtomicLong rated = new AtomicLong();
+            BoundedFanOut.forEach(cars(catalog), 10_000, function, car -> rated.incrementAndGet()).join();
+
+            long end = System.currentTimeMillis();
+
+            System.out.println("Rated " + rated.get() + " cars. Took " + (end - start) + " ms.");
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(catalog);
+        }
+    }
+
+}
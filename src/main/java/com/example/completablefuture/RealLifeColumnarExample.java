@@ -0,0 +1,37 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+
+public class RealLifeColumnarExample extends CompletableFutureExample {
+
+    public static void main(String[] args) {
+        int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        SimulatedRatingService service = new SimulatedRatingService(LatencyModel.fixed(Duration.ofMillis(50)), 0);
+
+        long start = System.currentTimeMillis();
+
+        // 1、列式存储的汽车目录, 不为每一行创建Car对象
+        CarTable table = new CarTable(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            table.add(i, i % 50, "Model-" + (i % 1000), 2000 + i % 20);
+        }
+
+        // 2、每个manufacturer只异步评分一次, 结果直接按行号写入float列
+        table.rateByManufacturerAsync(service::ratingAsync).join();
+
+        long end = System.currentTimeMillis();
+
+        System.out.println(table.car(0));
+        System.out.println(table.car(table.size - 1));
+        System.out.println("Rated " + table.size + " cars (" + table.modelCount() + " models). Took " + (end - start) + " ms.");
+
+        // 3、本地就能算出的评分不需要异步调用: 把已有的Car列表转成列式表, 按行分块在线程池里直接写入rating列
+        CarTable small = CarTable.of(cars());
+        small.rateAsync(CompletableFutureExample::lookup, ForkJoinPool.commonPool(), 1024).join();
+        for (int row = 0; row < small.size; row++) {
+            System.out.println(small.car(row));
+        }
+    }
+
+}
@@ -1,8 +1,12 @@
 package com.example.completablefuture;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -10,6 +14,59 @@ import java.util.stream.Collectors;
 
 public class RealLifeCompletableFutureExample extends CompletableFutureExample {
 
+    // 同一个时间窗口内的rating请求合并成一次ratings(int[])批量查询
+    static BatchingRatingClient batchingRatingClient = new BatchingRatingClient(
+            CompletableFutureExample::ratings, ForkJoinPool.commonPool(), 100, Duration.ofMillis(10));
+
+    // 某个manufacturer的评分后端变差时快速失败, 不占用其他manufacturer需要的线程; 阈值为百分比,
+    // 超过20秒还没完成的调用按失败处理并释放舱壁许可
+    static ManufacturerCircuitBreakers circuitBreakers = new ManufacturerCircuitBreakers(
+            20, 50, Duration.ofSeconds(10), 50, Duration.ofSeconds(30), 3, 10, Duration.ofSeconds(20));
+
+    // 暂时性的失败在退避之后重试, 断路器或舱壁拒绝的调用不重试
+    static RetryPolicy retryPolicy = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(2), 0.1,
+            th -> !(th instanceof RejectedExecutionException));
+
+    // 很多Car共享同一个manufacturer, 按manufacturerId缓存评分, 把O(cars)次远程调用降为O(manufacturers)次
+    static RatingCache ratingCache = new RatingCache(
+            retryPolicy.wrap(circuitBreakers.wrap(batchingRatingClient::rating)),
+            1_000, Duration.ofMinutes(10), Duration.ofMinutes(5), Duration.ofSeconds(30));
+
+    // 通过rating(manufacturerId), 修改Car对象的rating值
+    static Function<Car, CompletableFuture<Car>> rateCar = car -> {
+        Function<Throwable, Float> exceptionally = th -> -1f;
+        Function<Float, Car> thenApply = rate -> {
+            car.setRating(rate);
+            return car;
+        };
+        // exceptionally在缓存之后应用, 失败的查询不会以-1f的形式进入缓存
+        return ratingCache.get(car.manufacturerId).exceptionally(exceptionally).thenApply(thenApply);
+    };
+
+    // 带截止时间的版本: 每个评分调用只等待剩余的预算, 超时的汽车标记为Car.UNRATED, 返回部分结果而不是无限等待
+    static CompletableFuture<List<Car>> ratedCars(Deadline deadline) {
+        Function<Car, CompletableFuture<Car>> function = car -> {
+            CompletableFuture<Float> rating = ratingCache.get(car.manufacturerId).exceptionally(th -> -1f);
+            return deadline.completeOnTimeout(rating, Car.UNRATED).thenApply(rate -> {
+                car.setRating(rate);
+                return car;
+            });
+        };
+
+        Function<List<Car>, CompletableFuture<List<Car>>> thenCompose = cars -> {
+            List<CompletableFuture<Car>> updatedCars = cars.stream().map(function).collect(Collectors.toList());
+            return Futures.allAsList(updatedCars);
+        };
+
+        // 汽车列表本身拿不到时没有部分结果可言, 超时直接失败
+        return deadline.orTimeout(CompletableFuture.supplyAsync(CompletableFutureExample::cars)).thenCompose(thenCompose);
+    }
+
+    // 每辆车评分完成后立即推送给订阅者(遵循request(n)), 第一个结果的延迟取决于最快的评分而不是最慢的
+    static Flow.Publisher<Car> ratedCars(int maxInFlight) {
+        return new RatedCarPublisher(() -> cars().iterator(), rateCar, maxInFlight);
+    }
+
     public static void main(String[] args) {
         long start = System.currentTimeMillis();
 
@@ -17,27 +74,12 @@ public class RealLifeCompletableFutureExample extends CompletableFutureExample {
         Supplier<List<Car>> supplier = CompletableFutureExample::cars;
 
         Function<List<Car>, CompletableFuture<List<Car>>> thenCompose = cars -> {
-
-            // 通过rating(manufacturerId), 修改Car对象的rating值
-            Function<Car, CompletableFuture<Car>> function = car -> {
-                Supplier<Float> supplyAsync = () -> rating(car.manufacturerId);
-                Function<Throwable, Float> exceptionally = th -> -1f;
-                Function<Float, Car> thenApply = rate -> {
-                    car.setRating(rate);
-                    return car;
-                };
-                return CompletableFuture.supplyAsync(supplyAsync).exceptionally(exceptionally).thenApply(thenApply);
-            };
             // 2、然后我们复合一个CompletionStage填写每个汽车的评分，通过rating(manufacturerId)返回一个CompletionStage, 它会异步地获取汽车的评分(可能又是一个REST API调用)
-            List<CompletableFuture<Car>> updatedCars = cars.stream().map(function).collect(Collectors.toList());
-
-            Function<Void, List<Car>> thenApply = v -> updatedCars.stream()
-                    // .map(CompletionStage::toCompletableFuture)
-                    .map(CompletableFuture::join)
-                    .collect(Collectors.toList());
+            List<CompletableFuture<Car>> updatedCars = cars.stream().map(rateCar).collect(Collectors.toList());
 
-            // 3、当所有的汽车填好评分后，我们结束这个列表，所以我们调用allOf得到最终的阶段，它在前面阶段所有阶段完成后才完成。
-            return CompletableFuture.allOf(updatedCars.toArray(new CompletableFuture[0])).thenApply(thenApply);
+            // 3、当所有的汽车填好评分后，我们结束这个列表，所以我们调用allAsList得到最终的阶段，它在前面所有阶段完成后才完成。
+            //    与allOf之后再逐个join不同，allAsList直接按原顺序返回List<Car>。
+            return Futures.allAsList(updatedCars);
         };
 
         // 4、在最终的阶段调用whenComplete(),我们打印出每个汽车和它的评分。
@@ -0,0 +1,24 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.List;
+
+public class RealLifeDeadlineExample extends CompletableFutureExample {
+
+    public static void main(String[] args) {
+        long start = System.currentTimeMillis();
+
+        // 1、在入口处设置端到端的截止时间, rating()需要5秒, 所以3秒的预算会得到部分结果
+        Deadline deadline = Deadline.after(Duration.ofMillis(args.length > 0 ? Long.parseLong(args[0]) : 3000));
+
+        // 2、截止时间到达时, 已经评分的汽车和标记为UNRATED的汽车一起返回
+        List<Car> cars = RealLifeCompletableFutureExample.ratedCars(deadline).join();
+        cars.forEach(System.out::println);
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Rated " + cars.stream().filter(Car::isRated).count() + " of " + cars.size()
+                + " cars. Took " + (end - start) + " ms.");
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+public class RealLifeHedgingExample extends CompletableFutureExample {
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        // 中位数10ms的长尾延迟, 少数请求会慢上几十倍
+        SimulatedRatingService service = new SimulatedRatingService(LatencyModel.logNormal(Duration.ofMillis(10), 1.0), 0);
+
+        // 1、不对冲
+        System.out.println("plain:  " + measure(service::ratingAsync, requests));
+
+        // 2、在大约p90之后发送对冲请求, 对冲请求不超过总请求数的10%
+        HedgingPolicy policy = new HedgingPolicy(Duration.ofMillis(35), 10);
+        System.out.println("hedged: " + measure(policy.wrap(service::ratingAsync), requests)
+                + ", hedges=" + policy.hedgeCount() + "/" + policy.requestCount());
+
+        // 3、同样的策略也可以直接包装CompletableFutureExample::ratingAsync, 这里rating需要5秒, 3秒后发送一次对冲请求
+        HedgingPolicy slowPolicy = new HedgingPolicy(Duration.ofSeconds(3), 100);
+        long start = System.currentTimeMillis();
+        float rating = slowPolicy.wrap(CompletableFutureExample::ratingAsync).apply(1).join();
+        System.out.println("rating=" + rating + ", hedges=" + slowPolicy.hedgeCount()
+                + ". Took " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    private static LatencyHistogram measure(Function<Integer, CompletableFuture<Float>> rater, int requests) {
+        LatencyHistogram latency = new LatencyHistogram();
+        List<CompletableFuture<Float>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            futures.add(rater.apply(i % 50).whenComplete((rating, th) -> latency.record(System.nanoTime() - start)));
+            // 每毫秒一个请求, 避免一次性发出所有请求时排队本身成为延迟的主要来源
+            LockSupport.parkNanos(1_000_000);
+        }
+        Futures.allAsList(futures).join();
+        return latency;
+    }
+
+}
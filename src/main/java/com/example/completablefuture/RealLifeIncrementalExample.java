@@ -0,0 +1,75 @@
+package com.example.completablefuture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class RealLifeIncrementalExample extends CompletableFutureExample {
+
+    static SimulatedRatingService service = new SimulatedRatingService(LatencyModel.fixed(Duration.ofMillis(500)), 0);
+
+    public static void main(String[] args) throws IOException {
+        Path path = args.length > 0 ? Paths.get(args[0]) : Files.createTempFile("ratings", ".snapshot");
+        if (args.length == 0) {
+            Files.delete(path);
+        }
+
+        try (RatingSnapshot snapshot = RatingSnapshot.open(path, Duration.ofDays(1))) {
+            // 1、第一次运行: 快照中没有记录, 所有汽车都需要评分
+            rate(snapshot);
+
+            // 2、manufacturer 7的评分变了, 第二次运行只重新评分它的汽车
+            snapshot.markDirty(7);
+            rate(snapshot);
+        }
+
+        // 3、重新打开快照: 评分和dirty标记都从日志中恢复, 不需要重新评分
+        try (RatingSnapshot snapshot = RatingSnapshot.open(path, Duration.ofDays(1))) {
+            rate(snapshot);
+        } finally {
+            if (args.length == 0) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    static List<Car> rate(RatingSnapshot snapshot) {
+        long start = System.currentTimeMillis();
+
+        Function<Car, CompletableFuture<Car>> function = car -> {
+            if (snapshot.restore(car)) {
+                return CompletableFuture.completedFuture(car);
+            }
+            return service.ratingAsync(car.manufacturerId)
+                    .exceptionally(th -> -1f)
+                    .thenApply(rate -> {
+                        car.setRating(rate);
+                        try {
+                            snapshot.append(car);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return car;
+                    });
+        };
+
+        List<Car> cars = cars();
+        long stale = cars.stream().filter(snapshot::needsRating).count();
+        List<CompletableFuture<Car>> updatedCars = cars.stream().map(function).collect(Collectors.toList());
+        List<Car> rated = Futures.allAsList(updatedCars).join();
+        rated.forEach(System.out::println);
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Re-rated " + stale + " of " + rated.size() + " cars. Took " + (end - start) + " ms.");
+        return rated;
+    }
+
+}
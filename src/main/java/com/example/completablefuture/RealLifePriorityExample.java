@@ -0,0 +1,46 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public class RealLifePriorityExample extends CompletableFutureExample {
+
+    public static void main(String[] args) throws InterruptedException {
+        SimulatedRatingService service = new SimulatedRatingService(LatencyModel.fixed(Duration.ofMillis(20)), 0);
+        PriorityExecutor executor = new PriorityExecutor(4, "priority-executor", Duration.ofSeconds(2));
+        Executor batch = executor.forPriority(PriorityExecutor.Priority.BATCH);
+        Executor interactive = executor.forPriority(PriorityExecutor.Priority.INTERACTIVE);
+
+        try {
+            // 1、一个大批量的重新评分任务占满线程池
+            List<CompletableFuture<Float>> batchJob = new ArrayList<>();
+            for (int i = 0; i < 2_000; i++) {
+                int manufacturerId = i % 50;
+                batchJob.add(CompletableFuture.supplyAsync(() -> service.rating(manufacturerId), batch));
+            }
+
+            // 2、同时有交互式的单车查询, 它们不会排在批量任务后面
+            LatencyHistogram latency = new LatencyHistogram();
+            for (Car car : cars()) {
+                for (int i = 0; i < 20; i++) {
+                    long start = System.nanoTime();
+                    CompletableFuture.supplyAsync(() -> service.rating(car.manufacturerId), interactive)
+                            .thenAccept(car::setRating)
+                            .join();
+                    latency.record(System.nanoTime() - start);
+                    Thread.sleep(10);
+                }
+            }
+            System.out.println("Interactive: " + latency);
+            System.out.println("Batch still queued: " + executor.queued(PriorityExecutor.Priority.BATCH));
+
+            Futures.allAsList(batchJob).join();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+public class RealLifePublisherExample extends CompletableFutureExample {
+
+    public static void main(String[] args) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // 保持16个未满足的需求, 每辆车评分完成后立即打印, 而不是等待allOf
+        Flow.Subscriber<Car> subscriber = new Flow.Subscriber<Car>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(16);
+            }
+
+            @Override
+            public void onNext(Car car) {
+                System.out.println((System.currentTimeMillis() - start) + " ms: " + car);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable th) {
+                th.printStackTrace();
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        };
+
+        RealLifeCompletableFutureExample.ratedCars(16).subscribe(subscriber);
+        done.await();
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Took " + (end - start) + " ms.");
+    }
+
+}
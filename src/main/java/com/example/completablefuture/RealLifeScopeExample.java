@@ -0,0 +1,50 @@
+package com.example.completablefuture;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class RealLifeScopeExample extends CompletableFutureExample {
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        long start = System.currentTimeMillis();
+
+        try (RatingScope scope = new RatingScope(executor, true)) {
+            // 1、所有的rating调用都由scope来fork, scope知道哪些任务还在运行
+            Function<Car, CompletableFuture<Car>> function = car -> scope.fork(() -> rating(car.manufacturerId))
+                    .thenApply(rate -> {
+                        car.setRating(rate);
+                        return car;
+                    });
+            List<CompletableFuture<Car>> updatedCars = cars().stream().map(function).collect(Collectors.toList());
+
+            // 2、调用方只愿意等待1秒, 放弃时取消scope, 正在sleep的rating任务会被中断而不是继续占用线程5秒
+            Futures.allAsList(updatedCars)
+                    .orTimeout(1, TimeUnit.SECONDS)
+                    .whenComplete((v, th) -> {
+                        if (th != null) {
+                            System.out.println("Giving up: " + th);
+                            scope.cancel();
+                        }
+                    })
+                    .exceptionally(th -> null)
+                    .join();
+
+            updatedCars.forEach(cf -> System.out.println(cf));
+        } finally {
+            executor.shutdown();
+        }
+
+        // 3、线程已经被释放, 线程池很快就可以终止
+        boolean terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+        long end = System.currentTimeMillis();
+
+        System.out.println("Executor terminated: " + terminated + ". Took " + (end - start) + " ms.");
+    }
+
+}
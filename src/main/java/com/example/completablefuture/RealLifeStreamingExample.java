@@ -0,0 +1,48 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class RealLifeStreamingExample extends CompletableFutureExample {
+
+    public static void main(String[] args) {
+        int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        SimulatedRatingService service = new SimulatedRatingService(LatencyModel.fixed(Duration.ofMillis(50)), 0);
+
+        long start = System.currentTimeMillis();
+
+        // 1、按需生成汽车目录, 不会一次性创建所有的Car和CompletableFuture
+        Stream<Car> cars = IntStream.range(0, catalogSize)
+                .mapToObj(i -> new Car(i, i % 50, "Model-" + (i % 1000), 2000 + i % 20));
+
+        // 2、通过ratingAsync(manufacturerId)修改Car对象的rating值, 失败时使用-1f
+        Function<Car, CompletableFuture<Car>> function = car -> service.ratingAsync(car.manufacturerId)
+                .exceptionally(th -> -1f)
+                .thenApply(rate -> {
+                    car.setRating(rate);
+                    return car;
+                });
+
+        // 3、每辆车评分完成后立即输出, 不必等待最慢的那个评分
+        AtomicLong rated = new AtomicLong();
+        Consumer<Car> onRated = car -> {
+            if (rated.incrementAndGet() % 100_000 == 0) {
+                System.out.println(rated.get() + " rated, last: " + car);
+            }
+        };
+
+        // 4、同时最多只有maxInFlight个评分在进行
+        BoundedFanOut.forEach(cars, maxInFlight, function, onRated).join();
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Rated " + rated.get() + " cars. Took " + (end - start) + " ms.");
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.example.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// 非阻塞的重试: 每次重试都通过CompletableFuture.delayedExecutor调度, 等待期间不占用任何线程。
+// 延迟为指数退避加完全抖动(full jitter): random(0, min(maxDelay, baseDelay * 2^(attempt-1)))。
+// 重试预算: 每个首次调用存入budgetRatio个令牌, 每次重试消耗一个, 后端整体故障时重试流量不会超过正常流量的budgetRatio倍。
+class RetryPolicy {
+
+    private static final long TOKEN_SCALE = 1_000;
+    private static final long MAX_TOKENS = 100 * TOKEN_SCALE;
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final long tokensPerCall;
+    private final Predicate<Throwable> retryable;
+    private final Executor executor;
+    private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+
+    RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, double budgetRatio, Predicate<Throwable> retryable) {
+        this(maxAttempts, baseDelay, maxDelay, budgetRatio, retryable, ForkJoinPool.commonPool());
+    }
+
+    RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, double budgetRatio, Predicate<Throwable> retryable,
+                Executor executor) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.tokensPerCall = (long) (budgetRatio * TOKEN_SCALE);
+        this.retryable = retryable;
+        this.executor = executor;
+    }
+
+    Function<Integer, CompletableFuture<Float>> wrap(Function<Integer, CompletableFuture<Float>> rater) {
+        return manufacturerId -> execute(() -> rater.apply(manufacturerId));
+    }
+
+    <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        tokens.accumulateAndGet(tokensPerCall, (current, add) -> Math.min(MAX_TOKENS, current + add));
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(call, result, 1);
+        return result;
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result, int attempt) {
+        if (result.isDone()) {
+            // 调用方已经取消或者以其他方式完成了result, 不再重试
+            return;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, th) -> {
+            if (th == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(th);
+            if (attempt >= maxAttempts || !retryable.test(cause) || !tryAcquireRetry()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            CompletableFuture.delayedExecutor(delayNanos(attempt), TimeUnit.NANOSECONDS, executor)
+                    .execute(() -> attempt(call, result, attempt + 1));
+        });
+    }
+
+    private long delayNanos(int attempt) {
+        long ceiling = baseDelayNanos << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayNanos) {
+            ceiling = maxDelayNanos;
+        }
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private boolean tryAcquireRetry() {
+        while (true) {
+            long current = tokens.get();
+            if (current < TOKEN_SCALE) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - TOKEN_SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable th) {
+        while ((th instanceof CompletionException || th instanceof ExecutionException) && th.getCause() != null) {
+            th = th.getCause();
+        }
+        return th;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 模拟的评分服务。ratingAsync由CompletableFuture.delayedExecutor的定时器完成, 而不是在线程里Thread.sleep,
+// 所以少量线程就可以同时持有成千上万个进行中的评分请求。
+class SimulatedRatingService {
+
+    private final LatencyModel latency;
+    private final double failureRate;
+    private final Executor executor;
+    private final AtomicInteger concurrentCalls = new AtomicInteger();
+
+    SimulatedRatingService(LatencyModel latency, double failureRate) {
+        this(latency, failureRate, ForkJoinPool.commonPool());
+    }
+
+    SimulatedRatingService(LatencyModel latency, double failureRate, Executor executor) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must be in [0, 1]: " + failureRate);
+        }
+        this.latency = latency;
+        this.failureRate = failureRate;
+        this.executor = executor;
+    }
+
+    CompletableFuture<Float> ratingAsync(int manufacturerId) {
+        CompletableFuture<Float> result = new CompletableFuture<>();
+        long delay = latency.nextDelayNanos(concurrentCalls.incrementAndGet());
+        Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor);
+        delayed.execute(() -> {
+            concurrentCalls.decrementAndGet();
+            if (shouldFail()) {
+                result.completeExceptionally(failure(manufacturerId));
+            } else {
+                result.complete(CompletableFutureExample.lookup(manufacturerId));
+            }
+        });
+        return result;
+    }
+
+    // 阻塞版本, 用于对比同步调用和基于线程池的实现
+    float rating(int manufacturerId) {
+        sleep(latency.nextDelayNanos(concurrentCalls.incrementAndGet()), concurrentCalls);
+        if (shouldFail()) {
+            throw failure(manufacturerId);
+        }
+        return CompletableFutureExample.lookup(manufacturerId);
+    }
+
+    float[] ratings(int[] manufacturerIds) {
+        sleep(latency.nextDelayNanos(concurrentCalls.incrementAndGet()), concurrentCalls);
+        if (shouldFail()) {
+            throw new RuntimeException("simulated bulk rating failure for " + manufacturerIds.length + " manufacturers");
+        }
+        float[] ratings = new float[manufacturerIds.length];
+        for (int i = 0; i < manufacturerIds.length; i++) {
+            ratings[i] = CompletableFutureExample.lookup(manufacturerIds[i]);
+        }
+        return ratings;
+    }
+
+    private boolean shouldFail() {
+        return failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate;
+    }
+
+    private static RuntimeException failure(int manufacturerId) {
+        return new RuntimeException("simulated rating failure for manufacturer " + manufacturerId);
+    }
+
+    // 睡眠结束(或被中断)时这次调用不再计入并发数
+    private static void sleep(long nanos, AtomicInteger concurrentCalls) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            concurrentCalls.decrementAndGet();
+        }
+    }
+}
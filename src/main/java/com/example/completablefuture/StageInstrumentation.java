@@ -0,0 +1,300 @@
+package com.example.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// 低开销的阶段统计, 用来代替在每个阶段里System.out.println的printTimeAndThread。
+// 每个命名的阶段(supplyAsync、thenCompose、thenApply、whenComplete...)有固定数量的分段记录器, 按线程id选择分段(和LongAdder的cell一样),
+// 记录时不加锁、不打印; 分段数与CPU数相同, 不随见过的线程数增长, 短命的线程(例如虚拟线程)不会让内存无限增长;
+// 记录执行时间的直方图; 阶段在executor(...)包装的Executor上异步执行时, 还记录排队等待时间(从任务入队到开始执行)
+// 和执行线程与入队线程不同的次数(线程切换)。CompletableFuture在阶段的输入完成时才把异步阶段提交给Executor,
+// 所以排队等待时间就是从输入就绪到阶段开始执行的时间。snapshot()合并所有线程的记录。
+class StageInstrumentation {
+
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    // 当前线程正在执行的InstrumentedExecutor任务
+    private static final ThreadLocal<Task> CURRENT_TASK = new ThreadLocal<>();
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final Map<String, InstrumentedExecutor> executors = new ConcurrentHashMap<>();
+
+    // 阶段句柄可以缓存起来复用, 避免每次记录都查找一次
+    Stage stage(String name) {
+        return stages.computeIfAbsent(name, Stage::new);
+    }
+
+    <T> Supplier<T> supplier(String stage, Supplier<T> supplier) {
+        return stage(stage).wrapSupplier(supplier);
+    }
+
+    <T, R> Function<T, R> function(String stage, Function<T, R> function) {
+        return stage(stage).wrapFunction(function);
+    }
+
+    <T, U> BiConsumer<T, U> biConsumer(String stage, BiConsumer<T, U> consumer) {
+        return stage(stage).wrapBiConsumer(consumer);
+    }
+
+    <T> Consumer<T> consumer(String stage, Consumer<T> consumer) {
+        return stage(stage).wrapConsumer(consumer);
+    }
+
+    Runnable runnable(String stage, Runnable runnable) {
+        return stage(stage).wrapRunnable(runnable);
+    }
+
+    // 包装executor以统计队列深度(已提交但还没开始执行的任务数)和每个任务的排队时间
+    Executor executor(String name, Executor executor) {
+        InstrumentedExecutor instrumented = new InstrumentedExecutor(name, executor);
+        executors.put(name, instrumented);
+        return instrumented;
+    }
+
+    Snapshot snapshot() {
+        List<StageSnapshot> stageSnapshots = new ArrayList<>();
+        for (Stage stage : stages.values()) {
+            stageSnapshots.add(stage.snapshot());
+        }
+        List<ExecutorSnapshot> executorSnapshots = new ArrayList<>();
+        for (InstrumentedExecutor executor : executors.values()) {
+            executorSnapshots.add(new ExecutorSnapshot(executor.name, executor.submitted.get(),
+                    executor.depth.get(), executor.maxDepth.get(), executor.queueWait.copy()));
+        }
+        return new Snapshot(stageSnapshots, executorSnapshots);
+    }
+
+    static final class Stage {
+        final String name;
+        // 用到时才创建, 长度是2的幂
+        private final AtomicReferenceArray<Recorder> recorders = new AtomicReferenceArray<>(STRIPES);
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        <T> Supplier<T> wrapSupplier(Supplier<T> supplier) {
+            return () -> {
+                long start = System.nanoTime();
+                try {
+                    return supplier.get();
+                } finally {
+                    record(start);
+                }
+            };
+        }
+
+        <T, R> Function<T, R> wrapFunction(Function<T, R> function) {
+            return t -> {
+                long start = System.nanoTime();
+                try {
+                    return function.apply(t);
+                } finally {
+                    record(start);
+                }
+            };
+        }
+
+        <T, U> BiConsumer<T, U> wrapBiConsumer(BiConsumer<T, U> consumer) {
+            return (t, u) -> {
+                long start = System.nanoTime();
+                try {
+                    consumer.accept(t, u);
+                } finally {
+                    record(start);
+                }
+            };
+        }
+
+        <T> Consumer<T> wrapConsumer(Consumer<T> consumer) {
+            return t -> {
+                long start = System.nanoTime();
+                try {
+                    consumer.accept(t);
+                } finally {
+                    record(start);
+                }
+            };
+        }
+
+        Runnable wrapRunnable(Runnable runnable) {
+            return () -> {
+                long start = System.nanoTime();
+                try {
+                    runnable.run();
+                } finally {
+                    record(start);
+                }
+            };
+        }
+
+        // 排队时间和线程切换取自当前正在执行的InstrumentedExecutor任务, 而不是包装时的时刻和线程,
+        // 所以同一个包装后的函数可以被多次使用。同步执行的阶段没有排队, 只记录执行时间;
+        // 任务里第一个完成的阶段认领排队时间, 随后在同一个任务里被触发的同步阶段不会重复计入。
+        private void record(long start) {
+            long end = System.nanoTime();
+            Recorder current = recorder();
+            current.run.record(end - start);
+            Task task = CURRENT_TASK.get();
+            if (task != null && !task.claimed) {
+                task.claimed = true;
+                current.wait.record(start - task.enqueuedAt);
+                if (Thread.currentThread().getId() != task.submitter) {
+                    current.hops.incrementAndGet();
+                }
+            }
+        }
+
+        private Recorder recorder() {
+            int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            Recorder current = recorders.get(index);
+            if (current == null) {
+                recorders.compareAndSet(index, null, new Recorder());
+                current = recorders.get(index);
+            }
+            return current;
+        }
+
+        StageSnapshot snapshot() {
+            LatencyHistogram wait = new LatencyHistogram();
+            LatencyHistogram run = new LatencyHistogram();
+            long hops = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                Recorder r = recorders.get(i);
+                if (r != null) {
+                    wait.add(r.wait);
+                    run.add(r.run);
+                    hops += r.hops.get();
+                }
+            }
+            return new StageSnapshot(name, hops, wait, run);
+        }
+    }
+
+    // 同一分段可能被多个线程同时写入, LatencyHistogram和计数器都是无锁的原子操作
+    private static final class Recorder {
+        final LatencyHistogram wait = new LatencyHistogram();
+        final LatencyHistogram run = new LatencyHistogram();
+        final AtomicLong hops = new AtomicLong();
+    }
+
+    private static final class Task {
+        final long enqueuedAt;
+        final long submitter;
+        // 只由执行任务的线程读写
+        boolean claimed;
+
+        Task(long enqueuedAt, long submitter) {
+            this.enqueuedAt = enqueuedAt;
+            this.submitter = submitter;
+        }
+    }
+
+    private static final class InstrumentedExecutor implements Executor {
+        final String name;
+        final Executor delegate;
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final LatencyHistogram queueWait = new LatencyHistogram();
+
+        InstrumentedExecutor(String name, Executor delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            submitted.incrementAndGet();
+            int current = depth.incrementAndGet();
+            maxDepth.accumulateAndGet(current, Math::max);
+            Task task = new Task(System.nanoTime(), Thread.currentThread().getId());
+            try {
+                delegate.execute(() -> {
+                    depth.decrementAndGet();
+                    queueWait.record(System.nanoTime() - task.enqueuedAt);
+                    Task outer = CURRENT_TASK.get();
+                    CURRENT_TASK.set(task);
+                    try {
+                        command.run();
+                    } finally {
+                        CURRENT_TASK.set(outer);
+                    }
+                });
+            } catch (RuntimeException e) {
+                depth.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    static final class StageSnapshot {
+        final String name;
+        final long threadHops;
+        final LatencyHistogram queueWait;
+        final LatencyHistogram runTime;
+
+        StageSnapshot(String name, long threadHops, LatencyHistogram queueWait, LatencyHistogram runTime) {
+            this.name = name;
+            this.threadHops = threadHops;
+            this.queueWait = queueWait;
+            this.runTime = runTime;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (hops=" + threadHops + ")\n\twait: " + queueWait + "\n\trun:  " + runTime;
+        }
+    }
+
+    static final class ExecutorSnapshot {
+        final String name;
+        final long submitted;
+        final int queueDepth;
+        final int maxQueueDepth;
+        final LatencyHistogram queueWait;
+
+        ExecutorSnapshot(String name, long submitted, int queueDepth, int maxQueueDepth, LatencyHistogram queueWait) {
+            this.name = name;
+            this.submitted = submitted;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.queueWait = queueWait;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (submitted=" + submitted + ", queueDepth=" + queueDepth + ", maxQueueDepth=" + maxQueueDepth
+                    + ")\n\twait: " + queueWait;
+        }
+    }
+
+    static final class Snapshot {
+        final List<StageSnapshot> stages;
+        final List<ExecutorSnapshot> executors;
+
+        Snapshot(List<StageSnapshot> stages, List<ExecutorSnapshot> executors) {
+            this.stages = stages;
+            this.executors = executors;
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner("\n");
+            stages.forEach(stage -> joiner.add(stage.toString()));
+            executors.forEach(executor -> joiner.add(executor.toString()));
+            return joiner.toString();
+        }
+    }
+}